@@ -0,0 +1,75 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kennethheckler.solutions.threshold.user.repository.BenchmarkUsers;
+import com.kennethheckler.solutions.threshold.user.repository.UserRecord;
+import com.kennethheckler.solutions.threshold.user.repository.UserResponse;
+import com.kennethheckler.solutions.threshold.user.repository.UserSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering the response of the successful_user endpoint as JSON.
+ *
+ * @author Kenneth Heckler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThresholdResponseSerializeBenchmark {
+
+    @Param({"1000", "100000"})
+    private int userCount;
+
+    @Param({"0", "50", "90"})
+    private int threshold;
+
+    private ObjectMapper objectMapper;
+
+    private List<UserRecord> records;
+
+    private ThresholdResponse response;
+
+    @Setup
+    public void setUp() {
+        List<UserRecord> users = new ArrayList<>(userCount);
+        for (UserResponse.Data user : BenchmarkUsers.users(userCount)) {
+            users.add(UserRecord.of(user));
+        }
+
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        records = UserSnapshot.of(users).findByApprovedPercentGreaterThanThreshold(threshold);
+        response = new ThresholdResponse(threshold, toUsers(records));
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] mapAndSerialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(new ThresholdResponse(threshold, toUsers(records)));
+    }
+
+    private static List<ThresholdResponse.User> toUsers(List<UserRecord> records) {
+        List<ThresholdResponse.User> users = new ArrayList<>(records.size());
+        for (UserRecord record : records) {
+            users.add(ThresholdResponse.User.of(record));
+        }
+
+        return users;
+    }
+}
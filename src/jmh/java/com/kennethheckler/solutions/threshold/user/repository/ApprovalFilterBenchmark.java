@@ -0,0 +1,77 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding the users above a threshold: by calculating each user's approval percentage, by comparing each
+ * user's clamped counts exactly, and by searching a snapshot.
+ *
+ * @author Kenneth Heckler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ApprovalFilterBenchmark {
+
+    @Param({"1000", "100000"})
+    private int userCount;
+
+    @Param({"0", "50", "90"})
+    private int threshold;
+
+    private List<UserResponse.Data> users;
+
+    private List<UserRecord> records;
+
+    private UserSnapshot snapshot;
+
+    @Setup
+    public void setUp() {
+        users = BenchmarkUsers.users(userCount);
+        records = new ArrayList<>(userCount);
+        for (UserResponse.Data user : users) {
+            records.add(UserRecord.of(user));
+        }
+        snapshot = UserSnapshot.of(records);
+    }
+
+    @Benchmark
+    public int approvalPercentage() {
+        int count = 0;
+        for (UserResponse.Data user : users) {
+            if (user.getApprovalPercentage() > threshold) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    @Benchmark
+    public int exactComparison() {
+        int count = 0;
+        for (UserRecord record : records) {
+            if (record.hasApprovalRate() && record.isAbove(threshold)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    @Benchmark
+    public int snapshotSearch() {
+        return snapshot.findByApprovedPercentGreaterThanThreshold(threshold).size();
+    }
+}
@@ -0,0 +1,68 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the users the benchmarks run against. Users are generated from a fixed seed, so every run of a benchmark
+ * sees the same users.
+ *
+ * @author Kenneth Heckler
+ */
+public final class BenchmarkUsers {
+
+    // The date and time the first user was last updated
+    private static final Instant UPDATED_AT = Instant.parse("2019-08-24T17:15:16Z");
+
+    private BenchmarkUsers() {
+    }
+
+    /**
+     * Generates users with between 0 and 100 submissions, some of which are approved.
+     * @param count The number of users
+     * @return The users, in ID order
+     */
+    public static List<UserResponse.Data> users(int count) {
+        Random random = new Random(42);
+        List<UserResponse.Data> users = new ArrayList<>(count);
+
+        for (int id = 1; id <= count; id++) {
+            int submitted = random.nextInt(101);
+            int submissionCount = (submitted == 0 ? 0 : random.nextInt(submitted + 1));
+            users.add(new UserResponse.Data(id, "user" + id, "About user " + id, submitted,
+                    UPDATED_AT.plusSeconds(id), submissionCount, random.nextInt(50), 1288112060L + id));
+        }
+
+        return users;
+    }
+
+    /**
+     * Renders users as a page of the user data source's JSON.
+     * @param users The users on the page
+     * @return The page as UTF-8 JSON
+     */
+    public static byte[] page(List<UserResponse.Data> users) {
+        StringBuilder json = new StringBuilder("{\"page\":1,\"per_page\":").append(users.size())
+                .append(",\"total\":").append(users.size())
+                .append(",\"total_pages\":1,\"data\":[");
+
+        for (int i = 0; i < users.size(); i++) {
+            UserResponse.Data user = users.get(i);
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"id\":").append(user.getId())
+                    .append(",\"username\":\"").append(user.getUsername())
+                    .append("\",\"about\":\"").append(user.getAbout())
+                    .append("\",\"submitted\":").append(user.getSubmitted())
+                    .append(",\"updated_at\":\"").append(user.getUpdatedAt())
+                    .append("\",\"submission_count\":").append(user.getSubmissionCount())
+                    .append(",\"comment_count\":").append(user.getCommentCount())
+                    .append(",\"created_at\":").append(user.getCreatedAt())
+                    .append('}');
+        }
+
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
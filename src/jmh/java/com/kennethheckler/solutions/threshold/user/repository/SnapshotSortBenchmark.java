@@ -0,0 +1,59 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sorting users into a snapshot, as done by UserService when it queries the data source directly and by the
+ * repository when it refreshes its snapshot.
+ *
+ * @author Kenneth Heckler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotSortBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int userCount;
+
+    private List<UserResponse.Data> users;
+
+    private UserDataSet dataSet;
+
+    @Setup
+    public void setUp() {
+        users = BenchmarkUsers.users(userCount);
+        dataSet = new UserDataSet();
+        dataSet.apply(new UserResponse(1, userCount, userCount, 1, users));
+    }
+
+    /*
+     * The same steps as UserService.queryAndSortUsersAboveThreshold once the pages are read.
+     */
+    @Benchmark
+    public UserSnapshot queryAndSort() {
+        List<UserRecord> records = new ArrayList<>(users.size());
+        for (UserResponse.Data user : users) {
+            records.add(UserRecord.of(user));
+        }
+
+        return UserSnapshot.of(records);
+    }
+
+    @Benchmark
+    public UserSnapshot dataSetSnapshot() {
+        return dataSet.toSnapshot(Clock.systemUTC());
+    }
+}
@@ -0,0 +1,63 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding a page of the user data source, with data binding and with the streaming decoder.
+ *
+ * @author Kenneth Heckler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserPageDecodeBenchmark {
+
+    // The number of users on the page
+    @Param({"10", "100", "1000"})
+    private int pageSize;
+
+    private byte[] page;
+
+    private ObjectMapper objectMapper;
+
+    private UserPageDecoder decoder;
+
+    // Only decodes users above a threshold of 50, as a threshold crawl does
+    private final UserFilter aboveFifty = UserFilter.of(UserQuery.of(50));
+
+    @Setup
+    public void setUp() {
+        page = BenchmarkUsers.page(BenchmarkUsers.users(pageSize));
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        decoder = new UserPageDecoder(new JsonFactory());
+    }
+
+    @Benchmark
+    public UserResponse objectMapper() throws IOException {
+        return objectMapper.readValue(page, UserResponse.class);
+    }
+
+    @Benchmark
+    public UserResponse streamingDecoder() throws IOException {
+        return decoder.decode(new ByteArrayInputStream(page), UserFilter.ALL);
+    }
+
+    @Benchmark
+    public UserResponse streamingDecoderFiltered() throws IOException {
+        return decoder.decode(new ByteArrayInputStream(page), aboveFifty);
+    }
+}
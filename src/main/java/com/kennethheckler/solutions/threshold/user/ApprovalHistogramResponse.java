@@ -0,0 +1,140 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * DTO wrapper for how many users there are at each approval percentage and above each threshold, so that users can be
+ * counted without being listed. This object will be serialized to a JSON string and returned in the body of the
+ * successful_user/counts Rest endpoint HTTP response.
+ *
+ * @author Kenneth Heckler
+ */
+@Validated
+public class ApprovalHistogramResponse implements Serializable {
+
+    // The number of users with an approval percentage.
+    private final int total;
+
+    // The number of users at each whole approval percentage from 0 to 100, where the users at n% are those from n% up
+    // to, but not including, (n + 1)%.
+    private final List<Integer> buckets;
+
+    // The number of users above each approval percentage threshold value from 0 to 100.
+    private final List<Integer> above;
+
+    // The approval percentage threshold value passed in as the thresholdperc query parameter, if any.
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Integer threshold;
+
+    // The number of users above the threshold value passed in, if any.
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Integer count;
+
+    // Whether every page of the user data source was read, so the counts are known to be complete.
+    private final boolean complete;
+
+    // The pages of the user data source that could not be read, whose users may be missing or out of date.
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private final List<Integer> failedPages;
+
+    // Whether the request's time budget ran out before every page of the user data source was read.
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private final boolean truncated;
+
+    /**
+     * All args constructor.
+     * @param total The number of users with an approval percentage.
+     * @param buckets The number of users at each whole approval percentage from 0 to 100.
+     * @param above The number of users above each approval percentage threshold value from 0 to 100.
+     * @param threshold The approval percentage threshold value passed in as the thresholdperc query parameter, if any.
+     * @param count The number of users above the threshold value passed in, if any.
+     * @param complete Whether every page of the user data source was read. Defaults to true when null.
+     * @param failedPages The pages of the user data source that could not be read. Defaults to none when null.
+     * @param truncated Whether the request's time budget ran out before every page was read. Defaults to false when null.
+     */
+    @JsonCreator
+    public ApprovalHistogramResponse(
+            @JsonProperty("total") int total,
+            @JsonProperty("buckets") @NotNull List<Integer> buckets,
+            @JsonProperty("above") @NotNull List<Integer> above,
+            @JsonProperty("thresholdperc") Integer threshold,
+            @JsonProperty("count") Integer count,
+            @JsonProperty("complete") Boolean complete,
+            @JsonProperty("failed_pages") List<Integer> failedPages,
+            @JsonProperty("truncated") Boolean truncated) {
+        this.total = total;
+        this.buckets = buckets;
+        this.above = above;
+        this.threshold = threshold;
+        this.count = count;
+        this.complete = (complete == null || complete);
+        this.failedPages = (failedPages == null ? Collections.emptyList() : failedPages);
+        this.truncated = (truncated != null && truncated);
+    }
+
+    public int getTotal() {
+        return total;
+    }
+    public List<Integer> getBuckets() {
+        return buckets;
+    }
+    public List<Integer> getAbove() {
+        return above;
+    }
+    public Integer getThreshold() {
+        return threshold;
+    }
+    public Integer getCount() {
+        return count;
+    }
+    public boolean isComplete() {
+        return complete;
+    }
+    public List<Integer> getFailedPages() {
+        return failedPages;
+    }
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ApprovalHistogramResponse response = (ApprovalHistogramResponse) o;
+        return getTotal() == response.getTotal() && getBuckets().equals(response.getBuckets())
+                && getAbove().equals(response.getAbove()) && Objects.equals(getThreshold(), response.getThreshold())
+                && Objects.equals(getCount(), response.getCount()) && isComplete() == response.isComplete()
+                && getFailedPages().equals(response.getFailedPages()) && isTruncated() == response.isTruncated();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getTotal(), getBuckets(), getAbove(), getThreshold(), getCount(), isComplete(),
+                getFailedPages(), isTruncated());
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", ApprovalHistogramResponse.class.getSimpleName() + "[", "]")
+                .add("total=" + total)
+                .add("buckets=" + buckets)
+                .add("above=" + above)
+                .add("threshold=" + threshold)
+                .add("count=" + count)
+                .add("complete=" + complete)
+                .add("failedPages=" + failedPages)
+                .add("truncated=" + truncated)
+                .toString();
+    }
+}
@@ -0,0 +1,108 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.validation.annotation.Validated;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * DTO wrapper for the answers to several thresholds at once. Either the users above each threshold or only how many
+ * there are is returned. This object will be serialized to a JSON string and returned in the body of the
+ * successful_user/batch Rest endpoint HTTP response.
+ *
+ * @author Kenneth Heckler
+ */
+@Validated
+public class ThresholdBatchResponse implements Serializable {
+
+    // The response for each threshold, in the order the thresholds were passed in, unless only counts were requested.
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private final List<ThresholdResponse> results;
+
+    // The number of users above each threshold, keyed by threshold, if only counts were requested.
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private final Map<Integer, Integer> counts;
+
+    // Whether every page of the user data source was read, so every answer is known to be complete.
+    private final boolean complete;
+
+    // The pages of the user data source that could not be read, whose users may be missing or out of date.
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private final List<Integer> failedPages;
+
+    // Whether the request's time budget ran out before every page of the user data source was read.
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private final boolean truncated;
+
+    /**
+     * All args constructor.
+     * @param results The response for each threshold, in the order the thresholds were passed in. Defaults to none
+     *                when null.
+     * @param counts The number of users above each threshold, keyed by threshold. Defaults to none when null.
+     * @param complete Whether every page of the user data source was read. Defaults to true when null.
+     * @param failedPages The pages of the user data source that could not be read. Defaults to none when null.
+     * @param truncated Whether the request's time budget ran out before every page was read. Defaults to false when null.
+     */
+    @JsonCreator
+    public ThresholdBatchResponse(
+            @JsonProperty("results") List<ThresholdResponse> results,
+            @JsonProperty("counts") Map<Integer, Integer> counts,
+            @JsonProperty("complete") Boolean complete,
+            @JsonProperty("failed_pages") List<Integer> failedPages,
+            @JsonProperty("truncated") Boolean truncated) {
+        this.results = (results == null ? Collections.emptyList() : results);
+        this.counts = (counts == null ? Collections.emptyMap() : counts);
+        this.complete = (complete == null || complete);
+        this.failedPages = (failedPages == null ? Collections.emptyList() : failedPages);
+        this.truncated = (truncated != null && truncated);
+    }
+
+    public List<ThresholdResponse> getResults() {
+        return results;
+    }
+    public Map<Integer, Integer> getCounts() {
+        return counts;
+    }
+    public boolean isComplete() {
+        return complete;
+    }
+    public List<Integer> getFailedPages() {
+        return failedPages;
+    }
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ThresholdBatchResponse response = (ThresholdBatchResponse) o;
+        return getResults().equals(response.getResults()) && getCounts().equals(response.getCounts())
+                && isComplete() == response.isComplete() && getFailedPages().equals(response.getFailedPages())
+                && isTruncated() == response.isTruncated();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getResults(), getCounts(), isComplete(), getFailedPages(), isTruncated());
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", ThresholdBatchResponse.class.getSimpleName() + "[", "]")
+                .add("results=" + results)
+                .add("counts=" + counts)
+                .add("complete=" + complete)
+                .add("failedPages=" + failedPages)
+                .add("truncated=" + truncated)
+                .toString();
+    }
+}
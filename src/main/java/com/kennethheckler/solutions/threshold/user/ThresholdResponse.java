@@ -1,14 +1,16 @@
 package com.kennethheckler.solutions.threshold.user;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.kennethheckler.solutions.threshold.user.repository.UserResponse;
+import com.kennethheckler.solutions.threshold.user.repository.UserRecord;
 import org.springframework.validation.annotation.Validated;
 
 import javax.validation.constraints.NotNull;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.StringJoiner;
@@ -28,17 +30,76 @@ public class ThresholdResponse implements Serializable {
     // The list of Users that exceed the approval percentage threshold value.
     private final List<User> users;
 
+    // Opaque cursor to pass back to the successful_user endpoint to get the next page of users, or null on the last page.
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String nextCursor;
+
+    // Whether every page of the user data source was read, so the list of Users is known to be complete.
+    private final boolean complete;
+
+    // The pages of the user data source that could not be read, whose users may be missing or out of date.
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private final List<Integer> failedPages;
+
+    // Whether the request's time budget ran out before every page of the user data source was read.
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private final boolean truncated;
+
+    /**
+     * Required args constructor for complete, unpaged responses.
+     * @param threshold The approval percentage threshold value passed in as the thresholdperc successful_user query parameter.
+     * @param users The list of Users that exceed the approval percentage threshold value.
+     */
+    public ThresholdResponse(Integer threshold, List<User> users) {
+        this(threshold, users, null);
+    }
+
+    /**
+     * Required args constructor for complete responses.
+     * @param threshold The approval percentage threshold value passed in as the thresholdperc successful_user query parameter.
+     * @param users The list of Users that exceed the approval percentage threshold value.
+     * @param nextCursor Opaque cursor to get the next page of users, or null on the last page.
+     */
+    public ThresholdResponse(Integer threshold, List<User> users, String nextCursor) {
+        this(threshold, users, nextCursor, true, Collections.emptyList());
+    }
+
+    /**
+     * Required args constructor for responses that are not truncated.
+     * @param threshold The approval percentage threshold value passed in as the thresholdperc successful_user query parameter.
+     * @param users The list of Users that exceed the approval percentage threshold value.
+     * @param nextCursor Opaque cursor to get the next page of users, or null on the last page.
+     * @param complete Whether every page of the user data source was read.
+     * @param failedPages The pages of the user data source that could not be read.
+     */
+    public ThresholdResponse(Integer threshold, List<User> users, String nextCursor, boolean complete,
+                             List<Integer> failedPages) {
+        this(threshold, users, nextCursor, complete, failedPages, false);
+    }
+
     /**
      * All args constructor.
      * @param threshold The approval percentage threshold value passed in as the thresholdperc successful_user query parameter.
      * @param users The list of Users that exceed the approval percentage threshold value.
+     * @param nextCursor Opaque cursor to get the next page of users, or null on the last page.
+     * @param complete Whether every page of the user data source was read. Defaults to true when null.
+     * @param failedPages The pages of the user data source that could not be read. Defaults to none when null.
+     * @param truncated Whether the request's time budget ran out before every page was read. Defaults to false when null.
      */
     @JsonCreator
     public ThresholdResponse(
             @JsonProperty("thresholdperc") Integer threshold,
-            @JsonProperty("users") @NotNull List<User> users) {
+            @JsonProperty("users") @NotNull List<User> users,
+            @JsonProperty("next_cursor") String nextCursor,
+            @JsonProperty("complete") Boolean complete,
+            @JsonProperty("failed_pages") List<Integer> failedPages,
+            @JsonProperty("truncated") Boolean truncated) {
         this.threshold = threshold;
         this.users = users;
+        this.nextCursor = nextCursor;
+        this.complete = (complete == null || complete);
+        this.failedPages = (failedPages == null ? Collections.emptyList() : failedPages);
+        this.truncated = (truncated != null && truncated);
     }
 
     public Integer getThreshold() {
@@ -47,18 +108,33 @@ public class ThresholdResponse implements Serializable {
     public List<User> getUsers() {
         return users;
     }
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    public boolean isComplete() {
+        return complete;
+    }
+    public List<Integer> getFailedPages() {
+        return failedPages;
+    }
+    public boolean isTruncated() {
+        return truncated;
+    }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ThresholdResponse response = (ThresholdResponse) o;
-        return getThreshold().equals(response.getThreshold()) && getUsers().equals(response.getUsers());
+        return getThreshold().equals(response.getThreshold()) && getUsers().equals(response.getUsers())
+                && Objects.equals(getNextCursor(), response.getNextCursor()) && isComplete() == response.isComplete()
+                && getFailedPages().equals(response.getFailedPages()) && isTruncated() == response.isTruncated();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getThreshold(), getUsers());
+        return Objects.hash(getThreshold(), getUsers(), getNextCursor(), isComplete(), getFailedPages(),
+                isTruncated());
     }
 
     @Override
@@ -66,11 +142,16 @@ public class ThresholdResponse implements Serializable {
         return new StringJoiner(", ", ThresholdResponse.class.getSimpleName() + "[", "]")
                 .add("threshold=" + threshold)
                 .add("users=" + users)
+                .add("nextCursor='" + nextCursor + "'")
+                .add("complete=" + complete)
+                .add("failedPages=" + failedPages)
+                .add("truncated=" + truncated)
                 .toString();
     }
 
     /**
-     * Inner class that represents a user amd their submission record;
+     * Inner class that represents a user and their submission record. Values are normalized once, when the user is
+     * created, so the getters do no work.
      */
     static class User {
 
@@ -78,13 +159,13 @@ public class ThresholdResponse implements Serializable {
         private final String username;
 
         // Total number of articles submitted by the user
-        private final Integer submitted;
+        private final int submitted;
 
         // The number of submitted articles that are approved
-        private final Integer submissionCount;
+        private final int submissionCount;
 
-        // Calculated approval percentage
-        private final Double approvalRatePercentage;
+        // Calculated approval percentage in tenths of a percent
+        private final int approvalRateTenths;
 
         /**
          * All args constructor.
@@ -99,34 +180,47 @@ public class ThresholdResponse implements Serializable {
                 @JsonProperty("submitted") Integer submitted,
                 @JsonProperty("submission_count") Integer submissionCount,
                 @JsonProperty("approval_rate_perc") Double approvalRatePercentage) {
+            this(UserRecord.normalizeUsername(username), UserRecord.clamp(submitted), UserRecord.clamp(submissionCount),
+                    toTenths(approvalRatePercentage));
+        }
+
+        private User(String username, int submitted, int submissionCount, int approvalRateTenths) {
             this.username = username;
             this.submitted = submitted;
             this.submissionCount = submissionCount;
-            this.approvalRatePercentage = approvalRatePercentage;
+            this.approvalRateTenths = approvalRateTenths;
         }
 
-        static User of(UserResponse.Data userData) {
-            return new User(userData.getUsername(), userData.getSubmitted(),
-                    userData.getSubmissionCount(), userData.getApprovalPercentage());
+        static User of(UserRecord record) {
+            return new User(record.getUsername(), record.getSubmitted(), record.getSubmissionCount(),
+                    Math.max(record.getApprovalTenths(), 0));
+        }
+
+        /*
+         * Rounds an approval percentage half up to tenths of a percent.
+         */
+        private static int toTenths(Double approvalRatePercentage) {
+            String percentage = (approvalRatePercentage == null ? "0" : String.valueOf(approvalRatePercentage));
+            return new BigDecimal(percentage)
+                    .setScale(1, RoundingMode.HALF_UP)
+                    .unscaledValue()
+                    .intValue();
         }
 
         public String getUsername() {
-            return (username == null || username.trim().isEmpty() ? "Name Not Provided" : username.trim());
+            return username;
         }
 
-        public Integer getSubmitted() {
-            return (submitted >= 0 ? submitted : 0);
+        public int getSubmitted() {
+            return submitted;
         }
 
-        public Integer getSubmissionCount() {
-            return (submissionCount >= 0 ? submissionCount : 0);
+        public int getSubmissionCount() {
+            return submissionCount;
         }
 
-        public Double getApprovalRatePercentage() {
-            String percentage = (approvalRatePercentage == null ? "0" : String.valueOf(approvalRatePercentage));
-            return new BigDecimal(percentage)
-                    .setScale(1, RoundingMode.HALF_UP)
-                    .doubleValue();
+        public double getApprovalRatePercentage() {
+            return approvalRateTenths / 10.0;
         }
 
         @Override
@@ -134,12 +228,13 @@ public class ThresholdResponse implements Serializable {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             User user = (User) o;
-            return getUsername().equals(user.getUsername()) && getSubmitted().equals(user.getSubmitted()) && getSubmissionCount().equals(user.getSubmissionCount()) && getApprovalRatePercentage().equals(user.getApprovalRatePercentage());
+            return submitted == user.submitted && submissionCount == user.submissionCount
+                    && approvalRateTenths == user.approvalRateTenths && username.equals(user.username);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(getUsername(), getSubmitted(), getSubmissionCount(), getApprovalRatePercentage());
+            return Objects.hash(username, submitted, submissionCount, approvalRateTenths);
         }
 
         @Override
@@ -148,7 +243,7 @@ public class ThresholdResponse implements Serializable {
                     .add("username='" + username + "'")
                     .add("submitted=" + submitted)
                     .add("submissionCount=" + submissionCount)
-                    .add("approvalRatePercentage=" + approvalRatePercentage)
+                    .add("approvalRatePercentage=" + getApprovalRatePercentage())
                     .toString();
         }
     }
@@ -0,0 +1,215 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kennethheckler.solutions.threshold.user.repository.UserRepository;
+import com.kennethheckler.solutions.threshold.user.repository.UserRecord;
+import com.kennethheckler.solutions.threshold.user.repository.UserSnapshot;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Holds the serialized successful_user response for every possible threshold value. Each time the User repository
+ * takes a new snapshot, the JSON body of every threshold's ThresholdResponse is rendered once, along with a gzip copy
+ * and a strong ETag, so requests can be answered by writing the bytes directly.
+ *
+ * @author Kenneth Heckler
+ * @see ThresholdResponse
+ */
+@Component
+public class ThresholdResponseCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdResponseCache.class);
+
+    // The number of valid thresholdperc values, 0 to 99 inclusive
+    static final int THRESHOLDS = 100;
+
+    // The injected User repository whose snapshots are rendered
+    private final UserRepository userRepo;
+
+    // The injected, application-configured JSON mapper
+    private final ObjectMapper objectMapper;
+
+    // The responses rendered from the most recent snapshot, or null until the first snapshot is rendered
+    private final AtomicReference<Rendering> rendering = new AtomicReference<>();
+
+    // Lookups that found a rendered response
+    private final Counter hits;
+
+    // Lookups that did not find a rendered response
+    private final Counter misses;
+
+    // The background task rendering each new snapshot
+    private Disposable renderer;
+
+    /**
+     * Required args constructor.
+     * @param userRepo The injected User repository whose snapshots are rendered
+     * @param objectMapper The injected, application-configured JSON mapper
+     * @param meterRegistry The injected registry that cache lookups are counted in
+     */
+    ThresholdResponseCache(UserRepository userRepo, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.userRepo = userRepo;
+        this.objectMapper = objectMapper;
+        this.hits = lookups(meterRegistry, "hit");
+        this.misses = lookups(meterRegistry, "miss");
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("user.response.cache.lookups")
+                .description("Lookups of pre-rendered successful_user responses")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts rendering each new snapshot taken by the User repository.
+     */
+    @PostConstruct
+    void startRenderer() {
+        renderer = userRepo.watchSnapshots()
+                .publishOn(Schedulers.parallel())
+                .concatMap(snapshot -> Mono.fromCallable(() -> render(snapshot))
+                        .onErrorResume(e -> {
+                            LOG.warn("Unable to render the threshold responses", e);
+                            return Mono.empty();
+                        }))
+                .subscribe(rendering::set);
+    }
+
+    /**
+     * Stops rendering new snapshots.
+     */
+    @PreDestroy
+    void stopRenderer() {
+        if (renderer != null) {
+            renderer.dispose();
+        }
+    }
+
+    /**
+     * Finds the rendered response for the given threshold. A response is only found when it was rendered from the
+     * snapshot the User repository is currently serving.
+     * @param threshold The approval percentage filter. Must be an integer value between 0 and 99, inclusive.
+     * @return The rendered response, or empty if it is not available.
+     */
+    Mono<CachedResponse> find(int threshold) {
+        return userRepo.findSnapshot()
+                .flatMap(snapshot -> {
+                    Rendering current = rendering.get();
+                    return (current != null && current.snapshot == snapshot && threshold >= 0 && threshold < THRESHOLDS
+                            ? Mono.just(current.responses[threshold])
+                            : Mono.<CachedResponse>empty());
+                })
+                .doOnNext(cached -> hits.increment())
+                .switchIfEmpty(Mono.fromRunnable(misses::increment));
+    }
+
+    /*
+     * Renders the response for every threshold. Every threshold's users are a suffix of the snapshot's users, so each
+     * user is only mapped once.
+     */
+    private Rendering render(UserSnapshot snapshot) throws IOException {
+        List<ThresholdResponse.User> users = new ArrayList<>(snapshot.size());
+        for (UserRecord user : snapshot.getUsers()) {
+            users.add(ThresholdResponse.User.of(user));
+        }
+
+        CachedResponse[] responses = new CachedResponse[THRESHOLDS];
+        for (int threshold = 0; threshold < THRESHOLDS; threshold++) {
+            int from = users.size() - snapshot.countAbove(threshold);
+            byte[] json = objectMapper.writeValueAsBytes(
+                    new ThresholdResponse(threshold, users.subList(from, users.size()), null, snapshot.isComplete(),
+                            snapshot.getFailedPages(), snapshot.isTruncated()));
+
+            responses[threshold] = new CachedResponse(json, gzip(json));
+        }
+
+        return new Rendering(snapshot, responses);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+
+        return out.toByteArray();
+    }
+
+    /*
+     * The responses rendered from a single snapshot.
+     */
+    private static final class Rendering {
+
+        private final UserSnapshot snapshot;
+
+        private final CachedResponse[] responses;
+
+        private Rendering(UserSnapshot snapshot, CachedResponse[] responses) {
+            this.snapshot = snapshot;
+            this.responses = responses;
+        }
+    }
+
+    /**
+     * A rendered successful_user response body, in both identity and gzip encodings.
+     */
+    static final class CachedResponse {
+
+        // The JSON response body
+        private final byte[] json;
+
+        // The JSON response body, gzip compressed
+        private final byte[] gzip;
+
+        // Strong entity tag of the JSON response body
+        private final String eTag;
+
+        CachedResponse(byte[] json, byte[] gzip) {
+            this.json = json;
+            this.gzip = gzip;
+            this.eTag = "\"" + DigestUtils.md5DigestAsHex(json) + "\"";
+        }
+
+        byte[] getJson() {
+            return json;
+        }
+
+        byte[] getGzip() {
+            return gzip;
+        }
+
+        /**
+         * Gets the strong entity tag of the JSON response body.
+         * @return The quoted entity tag
+         */
+        String getETag() {
+            return eTag;
+        }
+
+        /**
+         * Gets the strong entity tag of the gzip response body. It has to differ from the JSON entity tag since the
+         * bytes of the two representations differ.
+         * @return The quoted entity tag
+         */
+        String getGzipETag() {
+            return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+        }
+    }
+}
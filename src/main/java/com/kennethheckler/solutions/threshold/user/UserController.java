@@ -1,11 +1,29 @@
 package com.kennethheckler.solutions.threshold.user;
 
+import com.kennethheckler.solutions.threshold.user.repository.DataSourceException;
+import com.kennethheckler.solutions.threshold.user.repository.UserCursor;
+import com.kennethheckler.solutions.threshold.user.repository.UserQuery;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Following the MVC pattern, this Controller class exposes the application's Rest API endpoints and handles basic HTTP
@@ -19,26 +37,322 @@ public class UserController {
     // The injected service for handling all the logic for getting and filtering users.
     private UserService userService;
 
+    // The injected cache of pre-rendered successful_user responses.
+    private ThresholdResponseCache responseCache;
+
+    // The injected registry that request latencies are recorded in.
+    private MeterRegistry meterRegistry;
+
     /**
      * Required args constructor.
      * @param userService The injected service for handling all the logic for getting and filtering users
+     * @param responseCache The injected cache of pre-rendered successful_user responses
+     * @param meterRegistry The injected registry that request latencies are recorded in
      */
-    UserController(UserService userService) {
+    UserController(UserService userService, ThresholdResponseCache responseCache, MeterRegistry meterRegistry) {
         this.userService = userService;
+        this.responseCache = responseCache;
+        this.meterRegistry = meterRegistry;
     }
 
     /**
      * Exposes and handles HTTP GET requests to the /successful_user Rest endpoint. The endpoint requires a single
      * thresholdperc query parameter to filter out users who have an approval percentage less than or equal to the
      * provided thresholdperc value. Results are in JSON format and ordered from least to highest approval percentage.
+     * <p>The optional limit query parameter pages through the results. When more users remain, the response contains
+     * a next_cursor value to pass back as the cursor query parameter to get the next page.
+     * <p>When an unpaged response has been pre-rendered, its bytes are written directly, gzip compressed if the client
+     * accepts it, and tagged with a strong ETag so conditional requests can be answered with 304 Not Modified.
+     * <p>The optional timeout query parameter, such as 500ms or 2s, bounds how long the users may be read from the data
+     * source when they are not already in memory. When it runs out, the users read so far are returned and the
+     * response is marked as truncated.
+     * <p>The optional min and max query parameters bound the approval percentage of the users, inclusive, and the
+     * optional min_submitted query parameter leaves out users who submitted fewer articles, whose approval percentage
+     * says little. The optional top query parameter only returns that many users with the highest approval
+     * percentages, still ordered from least to highest unless the optional order query parameter is desc, which orders
+     * the users from highest to least approval percentage.
      *
      * @param thresholdperc The approval percentage filter. Must be an integer value between 0 and 99, inclusive.
+     * @param min The lowest approval percentage, inclusive. Must be between 0 and 100 if provided.
+     * @param max The highest approval percentage, inclusive. Must be between 0 and 100 if provided.
+     * @param minSubmitted The fewest submitted articles. Must not be negative if provided.
+     * @param top The number of users with the highest approval percentages to return. Must be at least 1 if provided.
+     * @param order The order of the users, asc or desc. Defaults to asc.
+     * @param limit The maximum number of users to return. Must be at least 1 if provided.
+     * @param cursor The next_cursor value of the previous page, if any.
+     * @param timeout The time budget of the request, if any. Must be positive if provided.
+     * @param acceptEncoding The content encodings the client accepts, if any.
      * @return The list of users who have approval percentages greater than the provided threshold value.
      *
      * @see ThresholdResponse
      */
     @GetMapping("/successful_user")
-    ThresholdResponse getSuccessfulUser(@RequestParam(value = "thresholdperc") @Min(0) @Max(99) Integer thresholdperc) {
-        return userService.getUsersGreaterThanThreshold(thresholdperc);
+    Mono<ResponseEntity<Object>> getSuccessfulUser(
+            @RequestParam(value = "thresholdperc") @Min(0) @Max(99) Integer thresholdperc,
+            @RequestParam(value = "min", required = false) @Min(0) @Max(100) Integer min,
+            @RequestParam(value = "max", required = false) @Min(0) @Max(100) Integer max,
+            @RequestParam(value = "min_submitted", required = false) @Min(0) Integer minSubmitted,
+            @RequestParam(value = "top", required = false) @Min(1) Integer top,
+            @RequestParam(value = "order", required = false) String order,
+            @RequestParam(value = "limit", required = false) @Min(1) Integer limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "timeout", required = false) String timeout,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Duration budget = parseTimeout(timeout);
+        UserQuery query = buildQuery(thresholdperc, min, max, minSubmitted, top, order);
+
+        if (limit != null || cursor != null || query.isFiltered()) {
+            return userService.getUsers(query, decodeCursor(cursor), checkLimit(limit), budget)
+                    .map(response -> ResponseEntity.ok().body((Object) response))
+                    .doFinally(signal -> sample.stop(latencyTimer(thresholdperc,
+                            limit != null || cursor != null ? "paged" : "filtered")));
+        }
+
+        return responseCache.find(thresholdperc)
+                .map(cached -> cachedResponse(cached, acceptsGzip(acceptEncoding)))
+                .doOnNext(response -> sample.stop(latencyTimer(thresholdperc, "cached")))
+                .switchIfEmpty(Mono.defer(() -> userService.getUsers(query, null, null, budget)
+                        .map(response -> ResponseEntity.ok().body((Object) response))
+                        .doFinally(signal -> sample.stop(latencyTimer(thresholdperc, "queried")))));
+    }
+
+    /**
+     * Exposes the /successful_user Rest endpoint as a stream for clients that accept newline delimited JSON or
+     * server-sent events. Each user is written as its own JSON document, in the same order as the JSON endpoint, as
+     * soon as it is available.
+     *
+     * <p>The optional min, max, min_submitted and top query parameters narrow the users down, and the optional order
+     * query parameter orders them, the same way as for the JSON endpoint.
+     *
+     * @param thresholdperc The approval percentage filter. Must be an integer value between 0 and 99, inclusive.
+     * @param min The lowest approval percentage, inclusive. Must be between 0 and 100 if provided.
+     * @param max The highest approval percentage, inclusive. Must be between 0 and 100 if provided.
+     * @param minSubmitted The fewest submitted articles. Must not be negative if provided.
+     * @param top The number of users with the highest approval percentages to return. Must be at least 1 if provided.
+     * @param order The order of the users, asc or desc. Defaults to asc.
+     * @param timeout The time budget of the request, if any. Must be positive if provided.
+     * @return The users who have approval percentages greater than the provided threshold value.
+     *
+     * @see ThresholdResponse.User
+     */
+    @GetMapping(value = "/successful_user",
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    Flux<ThresholdResponse.User> streamSuccessfulUser(
+            @RequestParam(value = "thresholdperc") @Min(0) @Max(99) Integer thresholdperc,
+            @RequestParam(value = "min", required = false) @Min(0) @Max(100) Integer min,
+            @RequestParam(value = "max", required = false) @Min(0) @Max(100) Integer max,
+            @RequestParam(value = "min_submitted", required = false) @Min(0) Integer minSubmitted,
+            @RequestParam(value = "top", required = false) @Min(1) Integer top,
+            @RequestParam(value = "order", required = false) String order,
+            @RequestParam(value = "timeout", required = false) String timeout) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+
+        return userService.streamUsers(buildQuery(thresholdperc, min, max, minSubmitted, top, order),
+                        parseTimeout(timeout))
+                .doFinally(signal -> sample.stop(latencyTimer(thresholdperc, "stream")));
+    }
+
+    /**
+     * Exposes and handles HTTP GET requests to the /successful_user/batch Rest endpoint, which answers several
+     * thresholds from a single read and sort of the users, rather than one per threshold. The endpoint requires a
+     * thresholdperc query parameter holding a comma separated list of thresholds, or repeated once per threshold.
+     * Results are in JSON format, with one result per threshold in the order they were passed in, each ordered from
+     * least to highest approval percentage.
+     * <p>The optional counts query parameter, when true, only returns the number of users above each threshold.
+     * <p>The optional timeout query parameter bounds how long the users may be read from the data source, the same
+     * way as for the /successful_user endpoint.
+     *
+     * @param thresholdperc The approval percentage filters. Each must be an integer value between 0 and 99, inclusive.
+     * @param counts Whether to only count the users above each threshold.
+     * @param timeout The time budget of the request, if any. Must be positive if provided.
+     * @return The users, or the number of users, who have approval percentages greater than each threshold value.
+     *
+     * @see ThresholdBatchResponse
+     */
+    @GetMapping("/successful_user/batch")
+    Mono<ThresholdBatchResponse> getSuccessfulUsers(
+            @RequestParam(value = "thresholdperc") List<Integer> thresholdperc,
+            @RequestParam(value = "counts", defaultValue = "false") boolean counts,
+            @RequestParam(value = "timeout", required = false) String timeout) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+
+        return userService.getUsersGreaterThanThresholds(checkThresholds(thresholdperc), counts, parseTimeout(timeout))
+                .doFinally(signal -> sample.stop(latencyTimer("any", "batch")));
+    }
+
+    /**
+     * Exposes and handles HTTP GET requests to the /successful_user/counts Rest endpoint, which counts users rather than
+     * listing them. Results are in JSON format, holding the number of users at each whole approval percentage from 0
+     * to 100 and the number of users above each threshold from 0 to 100. Counts are worked out whenever user data is
+     * read, so answering never looks at a user.
+     * <p>The optional thresholdperc query parameter adds the count of users above that threshold on its own, and the
+     * optional timeout query parameter bounds how long the users may be read from the data source, the same way as for
+     * the /successful_user endpoint.
+     *
+     * @param thresholdperc The approval percentage filter, if any. Must be an integer value between 0 and 99,
+     *                      inclusive, if provided.
+     * @param timeout The time budget of the request, if any. Must be positive if provided.
+     * @return The number of users at each approval percentage and above each threshold value.
+     *
+     * @see ApprovalHistogramResponse
+     */
+    @GetMapping("/successful_user/counts")
+    Mono<ApprovalHistogramResponse> getSuccessfulUserCounts(
+            @RequestParam(value = "thresholdperc", required = false) @Min(0) @Max(99) Integer thresholdperc,
+            @RequestParam(value = "timeout", required = false) String timeout) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        if (thresholdperc != null) {
+            checkThresholds(Collections.singletonList(thresholdperc));
+        }
+
+        return userService.getApprovalHistogram(thresholdperc, parseTimeout(timeout))
+                .doFinally(signal -> sample.stop(latencyTimer("any", "counts")));
+    }
+
+    /**
+     * Answers any request whose users could not be read from the user data source at all with 502 Bad Gateway. Pages
+     * that cannot be read are otherwise reported in the response as failed pages.
+     * @param e The error reading the user data source
+     * @return The error response, holding the error's message
+     */
+    @ExceptionHandler(DataSourceException.class)
+    ResponseEntity<String> handleDataSourceException(DataSourceException e) {
+        return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(e.getMessage());
+    }
+
+    /*
+     * Latencies are tagged by how the response was produced and by threshold, in buckets of ten, to keep the number of
+     * timers small.
+     */
+    private Timer latencyTimer(Integer thresholdperc, String response) {
+        return latencyTimer(thresholdperc == null || thresholdperc < 0 || thresholdperc > 99
+                ? "invalid" : (thresholdperc / 10 * 10) + "-" + (thresholdperc / 10 * 10 + 9), response);
+    }
+
+    private Timer latencyTimer(String bucket, String response) {
+        return Timer.builder("user.successful_user.latency")
+                .description("Time taken to produce a successful_user response")
+                .tag("threshold", bucket)
+                .tag("response", response)
+                .register(meterRegistry);
+    }
+
+    private static UserCursor decodeCursor(String cursor) {
+        try {
+            return (cursor == null ? null : UserCursor.decode(cursor));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor", e);
+        }
+    }
+
+    /*
+     * Parses a timeout such as 500ms or 2s. A plain number is a number of milliseconds.
+     */
+    private static Duration parseTimeout(String timeout) {
+        if (timeout == null) {
+            return null;
+        }
+
+        Duration parsed;
+        try {
+            parsed = DurationStyle.detectAndParse(timeout.trim());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid timeout", e);
+        }
+
+        if (parsed.isNegative() || parsed.isZero()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The timeout must be positive");
+        }
+
+        return parsed;
+    }
+
+    /*
+     * Builds the user query, rejecting a threshold, bounds and counts outside of their ranges.
+     */
+    private static UserQuery buildQuery(Integer thresholdperc, Integer min, Integer max, Integer minSubmitted,
+                                        Integer top, String order) {
+        checkThresholds(Collections.singletonList(thresholdperc));
+        if ((min != null && (min < 0 || min > 100)) || (max != null && (max < 0 || max > 100))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The min and max must be between 0 and 100");
+        }
+        if (minSubmitted != null && minSubmitted < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The min_submitted must not be negative");
+        }
+        if (top != null && top < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The top must be at least 1");
+        }
+
+        return new UserQuery(thresholdperc, min, max, minSubmitted == null ? 0 : minSubmitted, top, parseOrder(order));
+    }
+
+    private static UserQuery.Order parseOrder(String order) {
+        if (order == null || order.equalsIgnoreCase("asc")) {
+            return UserQuery.Order.ASCENDING;
+        }
+        if (order.equalsIgnoreCase("desc")) {
+            return UserQuery.Order.DESCENDING;
+        }
+
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The order must be asc or desc");
+    }
+
+    private static List<Integer> checkThresholds(List<Integer> thresholds) {
+        if (thresholds == null || thresholds.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one thresholdperc is required");
+        }
+        for (Integer threshold : thresholds) {
+            if (threshold == null || threshold < 0 || threshold > 99) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Each thresholdperc must be between 0 and 99");
+            }
+        }
+
+        return thresholds;
+    }
+
+    private static Integer checkLimit(Integer limit) {
+        if (limit != null && limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The limit must be at least 1");
+        }
+
+        return limit;
+    }
+
+    /*
+     * Builds the response for a pre-rendered body. WebFlux compares the ETag with any If-None-Match request header
+     * and answers with 304 Not Modified when they match.
+     */
+    private static ResponseEntity<Object> cachedResponse(ThresholdResponseCache.CachedResponse cached, boolean gzip) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip) {
+            return builder.eTag(cached.getGzipETag())
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(cached.getGzip());
+        }
+
+        return builder.eTag(cached.getETag()).body(cached.getJson());
+    }
+
+    /*
+     * Checks whether the Accept-Encoding header allows a gzip response, ignoring gzip entries with a quality of zero.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+
+        return false;
     }
 }
@@ -1,15 +1,26 @@
 package com.kennethheckler.solutions.threshold.user;
 
+import com.kennethheckler.solutions.threshold.user.repository.UserCursor;
+import com.kennethheckler.solutions.threshold.user.repository.UserQuery;
+import com.kennethheckler.solutions.threshold.user.repository.UserRecord;
 import com.kennethheckler.solutions.threshold.user.repository.UserRepository;
+import com.kennethheckler.solutions.threshold.user.repository.UserSnapshot;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 /**
  * Following the MVC pattern, this Service class provides the logic and services required by the UserController to
@@ -21,45 +32,161 @@ import java.util.stream.Collectors;
 @Service
 public class UserService {
 
+    // Query for every user with an approval percentage, including users with none of their articles approved
+    private static final UserQuery EVERY_USER = UserQuery.of(-1);
+
     // The injected User repository providing the available commands and queries to be run against User data sources.
     private final UserRepository userRepo;
 
+    // The number of users in each response
+    private final DistributionSummary resultUsers;
+
     /**
      * Required args constructor.
      * @param userRepo The injected User repository providing the available commands and queries to be run against User data sources.
+     * @param meterRegistry The injected registry that result metrics are recorded in.
      */
-    UserService(UserRepository userRepo) {
+    UserService(UserRepository userRepo, MeterRegistry meterRegistry) {
         this.userRepo = userRepo;
+        this.resultUsers = DistributionSummary.builder("user.service.result.users")
+                .description("Number of users in each successful_user response built by the service")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Get a page of users that match the provided query. Users are ordered by approval percentage and then by user ID,
+     * in the query's order, so a cursor identifies a stable position in the result. When the query only keeps its top
+     * users, the cursor pages through them.
+     * @param query The user query, whose threshold must be an integer value between 0 and 99, inclusive.
+     * @param after The position to start after, or null to start from the first user in the query's order.
+     * @param limit The maximum number of users to return, or null to return every remaining user.
+     * @param timeout The time budget for reading the data source when there is no snapshot, or null for the default.
+     * @return A new ThresholdResponse object containing the page of filtered user data and, if there are more users,
+     * the cursor of the next page. If some pages of the data source could not be read, the response holds the users
+     * that could be read and is marked as incomplete. If the time budget ran out first, the response holds the users
+     * read by then and is marked as truncated. Any other failure to read the data source is left to the controller.
+     */
+    Mono<ThresholdResponse> getUsers(@NotNull UserQuery query, UserCursor after, @Min(1) Integer limit,
+                                     Duration timeout) {
+        return userRepo.findUsers(query, timeout)
+                .map(snapshot -> page(snapshot, query, after, limit));
+    }
+
+    /**
+     * Get the users above each of several thresholds from a single read of the users. The users above a threshold are
+     * a suffix of the users above any lower threshold, so the users above the lowest threshold are queried and sorted
+     * once, and each user is only mapped once, however many thresholds there are.
+     * @param thresholds The approval percentage filters, at least one. Each must be an integer value between 0 and 99,
+     *                   inclusive.
+     * @param countsOnly Whether to only count the users above each threshold rather than return them.
+     * @param timeout The time budget for reading the data source when there is no snapshot, or null for the default.
+     * @return A new ThresholdBatchResponse object containing the answer for each threshold, marked as incomplete or
+     * truncated the same way as a ThresholdResponse.
+     */
+    Mono<ThresholdBatchResponse> getUsersGreaterThanThresholds(@NotEmpty List<@Min(0) @Max(99) Integer> thresholds,
+                                                               boolean countsOnly, Duration timeout) {
+        int lowest = Collections.min(thresholds);
+        return userRepo.findUsers(UserQuery.of(lowest), timeout)
+                .map(snapshot -> batch(snapshot, thresholds, lowest, countsOnly));
+    }
+
+    /**
+     * Count the users at each approval percentage and above each threshold. The counts of a snapshot are worked out
+     * when it is taken, so no user is looked at, let alone serialized.
+     * @param threshold The approval percentage filter to count the users above, or null to only return the histogram.
+     *                  Must be an integer value between 0 and 99, inclusive, if provided.
+     * @param timeout The time budget for reading the data source when there is no snapshot, or null for the default.
+     * @return A new ApprovalHistogramResponse object containing the counts, marked as incomplete or truncated the same
+     * way as a ThresholdResponse.
+     */
+    Mono<ApprovalHistogramResponse> getApprovalHistogram(@Min(0) @Max(99) Integer threshold, Duration timeout) {
+        return userRepo.findUsers(EVERY_USER, timeout)
+                .map(snapshot -> histogram(snapshot, threshold));
     }
 
     /**
-     * Get users that have an approval percentage greater than the provided threshold.
-     * @param threshold The approval percentage filter. Must be an integer value between 0 and 99, inclusive.
-     * @return A new ThresholdResponse object containing the filtered user data.
+     * Stream users that match the provided query, in the query's order. When the repository has a snapshot, users are
+     * emitted as they are requested, so memory use is bounded and slow consumers apply backpressure. Otherwise the
+     * users are emitted once the crawl is sorted.
+     * @param query The user query, whose threshold must be an integer value between 0 and 99, inclusive.
+     * @param timeout The time budget for reading the data source when there is no snapshot, or null for the default.
+     * @return The filtered users.
+     */
+    Flux<ThresholdResponse.User> streamUsers(@NotNull UserQuery query, Duration timeout) {
+        return userRepo.findUsers(query, timeout)
+                .flatMapMany(snapshot -> Flux.fromIterable(snapshot.find(query, null)))
+                .map(ThresholdResponse.User::of);
+    }
+
+    /*
+     * The snapshot is already sorted, so the page is a view of its users that only needs to be mapped.
+     */
+    private ThresholdResponse page(UserSnapshot snapshot, UserQuery query, UserCursor after, Integer limit) {
+        List<UserRecord> data = snapshot.find(query, after);
+        String nextCursor = null;
+
+        if (limit != null && data.size() > limit) {
+            data = data.subList(0, limit);
+            nextCursor = UserCursor.of(data.get(limit - 1)).encode();
+        }
+
+        List<ThresholdResponse.User> users = new ArrayList<>(data.size());
+        for (UserRecord user : data) {
+            users.add(ThresholdResponse.User.of(user));
+        }
+
+        resultUsers.record(users.size());
+        return new ThresholdResponse(query.getThreshold(), users, nextCursor, snapshot.isComplete(),
+                snapshot.getFailedPages(), snapshot.isTruncated());
+    }
+
+    /*
+     * Each threshold's users are a suffix of the lowest threshold's users, so they are views of a single list of
+     * mapped users. Counts are only the sizes of the suffixes.
      */
-    ThresholdResponse getUsersGreaterThanThreshold(@NotNull @Min(0) @Max(99) Integer threshold) {
-        List<ThresholdResponse.User> users;
+    private ThresholdBatchResponse batch(UserSnapshot snapshot, List<Integer> thresholds, int lowest,
+                                         boolean countsOnly) {
+        if (countsOnly) {
+            Map<Integer, Integer> counts = new LinkedHashMap<>();
+            for (Integer threshold : thresholds) {
+                counts.put(threshold, snapshot.countAbove(threshold));
+            }
+
+            return new ThresholdBatchResponse(null, counts, snapshot.isComplete(), snapshot.getFailedPages(),
+                    snapshot.isTruncated());
+        }
 
-        try {
-            users = queryAndSortUsersAboveThreshold(threshold);
-        } catch (Exception e) {
+        List<ThresholdResponse.User> users = new ArrayList<>();
+        for (UserRecord user : snapshot.findByApprovedPercentGreaterThanThreshold(lowest)) {
+            users.add(ThresholdResponse.User.of(user));
+        }
 
-            // TODO: Throw an exception here that can be handled by the controller
-            users = Collections.emptyList();
+        List<ThresholdResponse> results = new ArrayList<>(thresholds.size());
+        for (Integer threshold : thresholds) {
+            int from = users.size() - snapshot.countAbove(threshold);
+            results.add(new ThresholdResponse(threshold, users.subList(from, users.size()), null,
+                    snapshot.isComplete(), snapshot.getFailedPages(), snapshot.isTruncated()));
         }
 
-        return new ThresholdResponse(threshold, users);
+        resultUsers.record(users.size());
+        return new ThresholdBatchResponse(results, null, snapshot.isComplete(), snapshot.getFailedPages(),
+                snapshot.isTruncated());
     }
 
     /*
-     * Query the User repository for users that have an approval percentage greater than the provided threshold.
-     * Sort any results from lowest to highest approval percentage;
+     * Both lists are read straight from the snapshot's precomputed counts.
      */
-    private List<ThresholdResponse.User> queryAndSortUsersAboveThreshold(Integer threshold) {
-        return userRepo.findByApprovedPercentGreaterThanThreshold(threshold).stream()
-                .flatMap(resp -> resp.getData().stream())
-                .map(ThresholdResponse.User::of)
-                .sorted(Comparator.comparingDouble(ThresholdResponse.User::getApprovalRatePercentage))
-                .collect(Collectors.toList());
+    private static ApprovalHistogramResponse histogram(UserSnapshot snapshot, Integer threshold) {
+        int[] histogram = snapshot.getHistogram();
+        List<Integer> buckets = new ArrayList<>(histogram.length);
+        List<Integer> above = new ArrayList<>(histogram.length);
+        for (int percentage = 0; percentage < histogram.length; percentage++) {
+            buckets.add(histogram[percentage]);
+            above.add(snapshot.countAbove(percentage));
+        }
+
+        return new ApprovalHistogramResponse(snapshot.size(), buckets, above, threshold,
+                threshold == null ? null : snapshot.countAbove(threshold), snapshot.isComplete(), snapshot.getFailedPages(),
+                snapshot.isTruncated());
     }
 }
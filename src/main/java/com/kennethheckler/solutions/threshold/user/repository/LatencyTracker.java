@@ -0,0 +1,65 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies of an operation, so that percentiles of its current latency can be calculated. Old
+ * latencies are overwritten as new ones are recorded, so the percentiles follow changes in the operation's latency.
+ * <p>Instances are thread safe.
+ *
+ * @author Kenneth Heckler
+ */
+final class LatencyTracker {
+
+    // The most recent latencies in nanoseconds, used as a ring buffer
+    private final long[] latencies;
+
+    // The fewest latencies a percentile is calculated from
+    private final int minSamples;
+
+    // The index the next latency is recorded at
+    private int next;
+
+    // The number of latencies recorded, up to the size of the ring buffer
+    private int count;
+
+    /**
+     * Required args constructor.
+     * @param capacity The number of recent latencies kept
+     * @param minSamples The fewest latencies a percentile is calculated from
+     */
+    LatencyTracker(int capacity, int minSamples) {
+        this.latencies = new long[capacity];
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Records the latency of an operation.
+     * @param nanos The latency in nanoseconds
+     */
+    synchronized void record(long nanos) {
+        latencies[next] = nanos;
+        next = (next + 1) % latencies.length;
+        count = Math.min(count + 1, latencies.length);
+    }
+
+    /**
+     * Calculates a percentile of the recent latencies.
+     * @param percentile The percentile, between 0 and 100
+     * @return The latency at the percentile, or null if too few latencies were recorded
+     */
+    Duration percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < minSamples) {
+                return null;
+            }
+            sorted = Arrays.copyOf(latencies, count);
+        }
+
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return Duration.ofNanos(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+}
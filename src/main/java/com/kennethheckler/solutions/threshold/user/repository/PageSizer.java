@@ -0,0 +1,144 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Chooses how many users to ask a shard of the user data source for on each page. Larger pages take a crawl fewer
+ * round trips, so the page size is probed upwards, up to a maximum, for as long as pages are read within the latency
+ * and size limits and the data source honors the size asked for. Pages that are too slow or too large back the size
+ * off again. The probe is a binary search between the largest size known to be within the limits and the smallest
+ * size known to be beyond them, so it settles on the largest size that stays within them.
+ * <p>The data source numbers pages by their size, so every page of a crawl must be read at the same size. A change of
+ * size only applies to crawls that start after it, and reads made at any other than the current size are ignored.
+ * <p>Instances are thread safe.
+ *
+ * @author Kenneth Heckler
+ */
+final class PageSizer {
+
+    // The number of page reads at a size whose median latency is judged, so a single slow page does not back it off
+    static final int WINDOW = 8;
+
+    // The largest page size probed
+    private final int maxSize;
+
+    // The median latency, in nanoseconds, that a page read may take
+    private final long maxLatencyNanos;
+
+    // The number of bytes a page body may have
+    private final long maxBytes;
+
+    // The latencies of the reads at the current size, in nanoseconds
+    private final long[] latencies = new long[WINDOW];
+
+    // The number of latencies recorded at the current size
+    private int count;
+
+    // The page size requested by crawls that start now
+    private int size;
+
+    // The largest page size read within the limits, or 0 if none is known
+    private int withinLimits;
+
+    // The smallest page size read beyond the limits, or Integer.MAX_VALUE if none is known
+    private int beyondLimits = Integer.MAX_VALUE;
+
+    /**
+     * Required args constructor.
+     * @param initialSize The page size requested until pages have been read, at least 1
+     * @param maxSize The largest page size probed. No larger size than the initial size is probed if smaller
+     * @param maxLatency The median latency that a page read may take
+     * @param maxBytes The number of bytes a page body may have
+     */
+    PageSizer(int initialSize, int maxSize, Duration maxLatency, long maxBytes) {
+        this.size = initialSize;
+        this.maxSize = Math.max(initialSize, maxSize);
+        this.maxLatencyNanos = maxLatency.toNanos();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Finds the page size to request for a crawl that starts now.
+     * @return The page size
+     */
+    synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Records a page read. A page the data source returned with another size than requested stops the probe, as the
+     * data source either caps the size, in which case the capped size is requested from then on, or ignores it. A page
+     * larger than the byte limit backs the size off straight away. Latencies are judged once a window of reads at the
+     * current size has been recorded.
+     * @param requested The page size requested
+     * @param perPage The page size the data source reported, or null if it did not report one
+     * @param nanos The time taken to read and decode the page, in nanoseconds
+     * @param bytes The number of bytes in the page body
+     */
+    synchronized void record(int requested, Integer perPage, long nanos, long bytes) {
+        if (requested != size) {
+            return;
+        }
+
+        if (perPage == null || perPage != requested) {
+            int honored = (perPage != null && perPage < requested ? Math.max(1, perPage) : requested);
+            withinLimits = Math.min(withinLimits, honored);
+            beyondLimits = honored + 1;
+            resize(honored);
+        } else if (bytes > maxBytes) {
+            backOff(requested);
+        } else {
+            latencies[count++] = nanos;
+            if (count == WINDOW) {
+                long[] sorted = latencies.clone();
+                Arrays.sort(sorted);
+                if (sorted[WINDOW / 2] > maxLatencyNanos) {
+                    backOff(requested);
+                } else {
+                    probe(requested);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a page read that was given up on because its body was larger than the byte limit, which backs the size
+     * off straight away.
+     * @param requested The page size requested
+     */
+    synchronized void recordTooLarge(int requested) {
+        if (requested == size) {
+            backOff(requested);
+        }
+    }
+
+    /*
+     * Returns to the largest size known to be within the limits, or halves the size if none is smaller.
+     */
+    private void backOff(int requested) {
+        beyondLimits = requested;
+        if (withinLimits >= requested) {
+            withinLimits = 0;
+        }
+
+        resize(withinLimits > 0 ? withinLimits : Math.max(1, requested / 2));
+    }
+
+    /*
+     * Doubles the size until a size beyond the limits is known, then tries halfway between the two.
+     */
+    private void probe(int requested) {
+        withinLimits = requested;
+        long next = (beyondLimits == Integer.MAX_VALUE
+                ? 2L * requested
+                : requested + (beyondLimits - requested) / 2);
+
+        resize((int) Math.min(next, maxSize));
+    }
+
+    private void resize(int newSize) {
+        size = newSize;
+        count = 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into a single in-flight call. The first caller for a key starts the
+ * call, and every caller that arrives before it completes waits for, and receives, the same value or error. Once the
+ * call completes the key is forgotten, so results are never cached beyond the calls that were waiting for them.
+ * <p>The in-flight call is only cancelled once every caller waiting for it has cancelled, such as when their deadlines
+ * pass, so a call nobody is waiting for any more does not go on using resources.
+ *
+ * @param <K> The type of key that identifies identical calls
+ * @param <V> The type of value the calls produce
+ * @author Kenneth Heckler
+ */
+final class SingleFlight<K, V> {
+
+    // The result of each in-flight call, by key
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Joins the in-flight call for the key, or starts the call if there is none.
+     * @param key Identifies identical calls
+     * @param call Supplies the call to start if there is none in flight for the key
+     * @return The result of the shared call
+     */
+    Mono<V> execute(K key, Supplier<Mono<V>> call) {
+        return Mono.defer(() -> {
+            AtomicReference<Mono<V>> self = new AtomicReference<>();
+            Mono<V> shared = Mono.defer(call)
+                    .doFinally(signal -> inFlight.remove(key, self.get()))
+                    .flux()
+                    .publish()
+                    .refCount()
+                    .singleOrEmpty();
+            self.set(shared);
+
+            Mono<V> existing = inFlight.putIfAbsent(key, shared);
+            return (existing != null ? existing : shared);
+        });
+    }
+
+    /**
+     * Counts the calls currently in flight.
+     * @return The number of keys with a call in flight
+     */
+    int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,401 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar store of users. Each user is a row, and each of its values is kept in a parallel primitive array rather
+ * than in an object of its own, with the usernames kept in a UsernamePool. A user costs a few tens of bytes instead of
+ * the hundreds taken by a UserResponse.Data and its boxed values.
+ * <p>Instances are not thread safe while being modified, but may be read concurrently once they are done.
+ *
+ * @author Kenneth Heckler
+ * @see UserRecord
+ */
+final class UserColumns {
+
+    // The capacity of new columns
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Marks an unused slot in a hash table
+    private static final int EMPTY = -1;
+
+    // The unique ID of each user
+    private int[] ids;
+
+    // The total number of articles submitted by each user
+    private int[] submitted;
+
+    // The number of submitted articles that are approved, for each user
+    private int[] submissionCounts;
+
+    // The approval rank of each user, or NO_APPROVAL_RATE
+    private short[] approvalRanks;
+
+    // The index of each user's username in the username pool
+    private int[] usernames;
+
+    // The date and time of the last update to each user, in milliseconds since the epoch, or NO_UPDATED_AT
+    private long[] updatedAt;
+
+    // The number of users in the store
+    private int size;
+
+    // The usernames of the users
+    private UsernamePool usernamePool;
+
+    /**
+     * Required args constructor.
+     * @param directUsernames Whether usernames are stored off-heap
+     */
+    UserColumns(boolean directUsernames) {
+        this(INITIAL_CAPACITY, new UsernamePool(directUsernames));
+    }
+
+    private UserColumns(int capacity, UsernamePool usernamePool) {
+        this.ids = new int[capacity];
+        this.submitted = new int[capacity];
+        this.submissionCounts = new int[capacity];
+        this.approvalRanks = new short[capacity];
+        this.usernames = new int[capacity];
+        this.updatedAt = new long[capacity];
+        this.usernamePool = usernamePool;
+    }
+
+    /**
+     * Reads a store written by {@link #writeTo(ByteBuffer)}. The columns are copied onto the heap, while the usernames
+     * are left in the buffer. No more users may be added to the store.
+     * @param buffer The buffer, positioned at the start of the store
+     * @return The store
+     */
+    static UserColumns readFrom(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        UserColumns columns = new UserColumns(size, null);
+
+        buffer.asIntBuffer().get(columns.ids);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().get(columns.submitted);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().get(columns.submissionCounts);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asShortBuffer().get(columns.approvalRanks);
+        buffer.position(buffer.position() + size * Short.BYTES);
+        buffer.asIntBuffer().get(columns.usernames);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asLongBuffer().get(columns.updatedAt);
+        buffer.position(buffer.position() + size * Long.BYTES);
+
+        columns.usernamePool = UsernamePool.readFrom(buffer);
+        columns.size = size;
+        return columns;
+    }
+
+    /**
+     * Writes the store, including its usernames, to a buffer.
+     * @param buffer The buffer, which must have at least {@link #byteSize()} bytes remaining
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size);
+
+        buffer.asIntBuffer().put(ids, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().put(submitted, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().put(submissionCounts, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asShortBuffer().put(approvalRanks, 0, size);
+        buffer.position(buffer.position() + size * Short.BYTES);
+        buffer.asIntBuffer().put(usernames, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asLongBuffer().put(updatedAt, 0, size);
+        buffer.position(buffer.position() + size * Long.BYTES);
+
+        usernamePool.writeTo(buffer);
+    }
+
+    /**
+     * Calculates the number of bytes written by {@link #writeTo(ByteBuffer)}.
+     * @return The number of bytes
+     */
+    int byteSize() {
+        return Integer.BYTES + size * (4 * Integer.BYTES + Short.BYTES + Long.BYTES) + usernamePool.byteSize();
+    }
+
+    /**
+     * Adds a user to the end of the store.
+     * @param user The user
+     * @return The row of the user
+     */
+    int add(UserRecord user) {
+        if (size == ids.length) {
+            grow(Math.max(size * 2, INITIAL_CAPACITY));
+        }
+
+        set(size, user);
+        return size++;
+    }
+
+    /**
+     * Replaces the user in a row.
+     * @param row The row of the user
+     * @param user The new version of the user
+     */
+    void set(int row, UserRecord user) {
+        ids[row] = user.getId();
+        submitted[row] = user.getSubmitted();
+        submissionCounts[row] = user.getSubmissionCount();
+        approvalRanks[row] = (short) user.getApprovalRank();
+        usernames[row] = usernamePool.add(user.getUsername());
+        updatedAt[row] = user.getUpdatedAt();
+    }
+
+    /**
+     * Removes the user in a row by moving the last user into it.
+     * @param row The row of the user
+     */
+    void remove(int row) {
+        int last = --size;
+
+        ids[row] = ids[last];
+        submitted[row] = submitted[last];
+        submissionCounts[row] = submissionCounts[last];
+        approvalRanks[row] = approvalRanks[last];
+        usernames[row] = usernames[last];
+        updatedAt[row] = updatedAt[last];
+    }
+
+    /**
+     * Rebuilds the username pool so it only holds the usernames of the users still in the store.
+     */
+    void compactUsernames() {
+        UsernamePool compacted = new UsernamePool(usernamePool.isDirect());
+        for (int row = 0; row < size; row++) {
+            usernames[row] = compacted.add(usernamePool.get(usernames[row]));
+        }
+
+        usernamePool = compacted;
+    }
+
+    /**
+     * Copies the users with a defined approval rate into a new, exactly sized store, sorted from lowest to highest
+     * approval rate and then by user ID. Users are bucketed by approval rank with a counting sort, and each bucket is
+     * then sorted by user ID, so sorting never compares anything but primitives.
+     * @return The sorted copy, which no more users may be added to
+     */
+    UserColumns sortByApprovalRate() {
+        // Start of each approval rank's bucket, offset by one so ranks without users take no space
+        int[] bucketStarts = new int[UserSnapshot.APPROVAL_RANKS + 1];
+        int rated = 0;
+        for (int row = 0; row < size; row++) {
+            if (approvalRanks[row] != UserRecord.NO_APPROVAL_RATE) {
+                bucketStarts[approvalRanks[row] + 1]++;
+                rated++;
+            }
+        }
+        for (int rank = 1; rank <= UserSnapshot.APPROVAL_RANKS; rank++) {
+            bucketStarts[rank] += bucketStarts[rank - 1];
+        }
+
+        // Sort keys hold the user ID in the high half, so they order by ID, and the unsorted row in the low half
+        long[] keys = new long[rated];
+        int[] next = Arrays.copyOf(bucketStarts, UserSnapshot.APPROVAL_RANKS);
+        for (int row = 0; row < size; row++) {
+            if (approvalRanks[row] != UserRecord.NO_APPROVAL_RATE) {
+                keys[next[approvalRanks[row]]++] = ((long) ids[row] << 32) | row;
+            }
+        }
+        for (int rank = 0; rank < UserSnapshot.APPROVAL_RANKS; rank++) {
+            Arrays.sort(keys, bucketStarts[rank], bucketStarts[rank + 1]);
+        }
+
+        UserColumns sorted = new UserColumns(rated, new UsernamePool(usernamePool.isDirect()));
+        for (long key : keys) {
+            sorted.append(this, (int) key);
+        }
+        sorted.usernamePool.freeze();
+
+        return sorted;
+    }
+
+    /**
+     * Merges stores that are each sorted by approval rate and then by user ID, such as the stores read from each shard
+     * of the data source, into a new, exactly sized store in the same order. The stores are merged k ways through a
+     * heap of their next users, so nothing is sorted again. A user found in more than one store is only kept once:
+     * the version with the latest updated_at value, or the version in the earliest store if that does not tell them
+     * apart.
+     * @param runs The sorted stores, at least one
+     * @return The merged store, which no more users may be added to
+     */
+    static UserColumns merge(List<UserColumns> runs) {
+        // Where each store's rows start when every row of every store is numbered in turn
+        int[] starts = new int[runs.size() + 1];
+        for (int run = 0; run < runs.size(); run++) {
+            starts[run + 1] = starts[run] + runs.get(run).size;
+        }
+
+        // Open addressing hash table of the numbered row kept for each user ID, and its updated_at value
+        int capacity = Integer.highestOneBit(Math.max(starts[runs.size()], 8)) * 4;
+        int[] keptIds = new int[capacity];
+        int[] keptRows = new int[capacity];
+        long[] keptUpdatedAt = new long[capacity];
+        Arrays.fill(keptRows, EMPTY);
+
+        int kept = 0;
+        for (int run = 0; run < runs.size(); run++) {
+            UserColumns columns = runs.get(run);
+            for (int row = 0; row < columns.size; row++) {
+                int slot = findSlot(keptIds, keptRows, columns.ids[row]);
+                if (keptRows[slot] == EMPTY) {
+                    keptIds[slot] = columns.ids[row];
+                    kept++;
+                } else if (columns.updatedAt[row] <= keptUpdatedAt[slot]) {
+                    continue;
+                }
+
+                keptRows[slot] = starts[run] + row;
+                keptUpdatedAt[slot] = columns.updatedAt[row];
+            }
+        }
+
+        // Binary min-heap of the stores that have users left, ordered by their next user
+        int[] heap = new int[runs.size()];
+        int[] next = new int[runs.size()];
+        int heapSize = 0;
+        for (int run = 0; run < runs.size(); run++) {
+            if (runs.get(run).size > 0) {
+                heap[heapSize++] = run;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, runs, next);
+        }
+
+        UserColumns merged = new UserColumns(kept, new UsernamePool(runs.get(0).usernamePool.isDirect()));
+        while (heapSize > 0) {
+            int run = heap[0];
+            UserColumns columns = runs.get(run);
+            int row = next[run]++;
+            if (keptRows[findSlot(keptIds, keptRows, columns.ids[row])] == starts[run] + row) {
+                merged.append(columns, row);
+            }
+
+            if (next[run] == columns.size) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0, runs, next);
+        }
+        merged.usernamePool.freeze();
+
+        return merged;
+    }
+
+    /**
+     * Reads the user in a row back into a record.
+     * @param row The row of the user
+     * @return A new record of the user
+     */
+    UserRecord get(int row) {
+        return new UserRecord(ids[row], usernamePool.get(usernames[row]), submitted[row], submissionCounts[row],
+                approvalRanks[row], updatedAt[row]);
+    }
+
+    int getId(int row) {
+        return ids[row];
+    }
+
+    int getSubmitted(int row) {
+        return submitted[row];
+    }
+
+    int getApprovalRank(int row) {
+        return approvalRanks[row];
+    }
+
+    long getUpdatedAt(int row) {
+        return updatedAt[row];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int usernameCount() {
+        return usernamePool.size();
+    }
+
+    /*
+     * Copies a row of another store to the end of this one, which must have room for it.
+     */
+    private void append(UserColumns from, int row) {
+        ids[size] = from.ids[row];
+        submitted[size] = from.submitted[row];
+        submissionCounts[size] = from.submissionCounts[row];
+        approvalRanks[size] = from.approvalRanks[row];
+        usernames[size] = usernamePool.add(from.usernamePool.get(from.usernames[row]));
+        updatedAt[size] = from.updatedAt[row];
+        size++;
+    }
+
+    private static int findSlot(int[] keptIds, int[] keptRows, int id) {
+        int mask = keptRows.length - 1;
+        int slot = hash(id) & mask;
+        while (keptRows[slot] != EMPTY && keptIds[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /*
+     * Restores the heap order below a position, comparing the stores by the approval rank and then the ID of their
+     * next user, and then by their order.
+     */
+    private static void siftDown(int[] heap, int heapSize, int position, List<UserColumns> runs, int[] next) {
+        int i = position;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && precedes(heap[left], heap[smallest], runs, next)) {
+                smallest = left;
+            }
+            if (right < heapSize && precedes(heap[right], heap[smallest], runs, next)) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+
+            int swapped = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = swapped;
+            i = smallest;
+        }
+    }
+
+    private static boolean precedes(int run, int other, List<UserColumns> runs, int[] next) {
+        UserColumns a = runs.get(run);
+        UserColumns b = runs.get(other);
+        int order = Integer.compare(a.approvalRanks[next[run]], b.approvalRanks[next[other]]);
+        if (order == 0) {
+            order = Integer.compare(a.ids[next[run]], b.ids[next[other]]);
+        }
+
+        return order < 0 || (order == 0 && run < other);
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        submitted = Arrays.copyOf(submitted, capacity);
+        submissionCounts = Arrays.copyOf(submissionCounts, capacity);
+        approvalRanks = Arrays.copyOf(approvalRanks, capacity);
+        usernames = Arrays.copyOf(usernames, capacity);
+        updatedAt = Arrays.copyOf(updatedAt, capacity);
+    }
+}
@@ -0,0 +1,96 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Position of a user in the approval percentage order of a UserSnapshot. Paged queries return the users that come
+ * after the cursor, so a client can walk through a sorted result one page at a time. The cursor is made of the user's
+ * approval rank and, to break ties, the user's ID.
+ * <p>Cursors are handed to clients as opaque, URL-safe strings.
+ *
+ * @author Kenneth Heckler
+ * @see UserSnapshot
+ */
+public final class UserCursor {
+
+    // The approval rank of the user at the cursor
+    private final int approvalRank;
+
+    // The ID of the user at the cursor
+    private final int id;
+
+    /**
+     * All args constructor.
+     * @param approvalRank The approval rank of the user at the cursor
+     * @param id The ID of the user at the cursor
+     * @see UserRecord
+     */
+    UserCursor(int approvalRank, int id) {
+        this.approvalRank = approvalRank;
+        this.id = id;
+    }
+
+    /**
+     * Creates a cursor positioned at the given user.
+     * @param user The user at the cursor
+     * @return A new cursor
+     */
+    public static UserCursor of(UserRecord user) {
+        return new UserCursor(user.getApprovalRank(), user.getId());
+    }
+
+    /**
+     * Decodes a cursor previously returned by {@link #encode()}.
+     * @param value The encoded cursor
+     * @return The decoded cursor
+     * @throws IllegalArgumentException If the value is not a valid cursor
+     */
+    public static UserCursor decode(String value) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+
+            return new UserCursor(Integer.parseInt(decoded.substring(0, separator)),
+                    Integer.parseInt(decoded.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + value, e);
+        }
+    }
+
+    /**
+     * Encodes the cursor as an opaque, URL-safe string.
+     * @return The encoded cursor
+     */
+    public String encode() {
+        String value = approvalRank + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int getApprovalRank() {
+        return approvalRank;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserCursor cursor = (UserCursor) o;
+        return approvalRank == cursor.approvalRank && id == cursor.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(approvalRank, id);
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
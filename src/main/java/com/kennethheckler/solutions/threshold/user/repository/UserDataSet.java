@@ -0,0 +1,324 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The working set of users read from the user data source, kept between snapshot refreshes so that pages can be
+ * patched in as they change instead of rebuilding everything from scratch. The users on each page are tracked so that
+ * users who disappear from the data source are removed as well. Pages that could not be read are tracked until they
+ * are read again, so that snapshots can report that they are incomplete. Users are kept in a columnar store, found by
+ * ID through an open addressing hash table of rows.
+ * <p>Instances are mutable and thread safe.
+ *
+ * @author Kenneth Heckler
+ */
+final class UserDataSet {
+
+    // Marks an unused slot in the hash table
+    private static final int EMPTY = -1;
+
+    // Every known user
+    private final UserColumns users;
+
+    // Open addressing hash table of the row of each user, by user ID
+    private int[] rowsById = newTable(16);
+
+    // The number of pages that list each user, in the same order as the users
+    private short[] pageCounts = new short[16];
+
+    // The sorted IDs of the users last read from each page, by page number
+    private final Map<Integer, int[]> pageUserIds = new HashMap<>();
+
+    // The pages that could not be read the last time they were requested
+    private final SortedSet<Integer> failedPages = new TreeSet<>();
+
+    // The page size the pages were read at, or 0 if the data source chose it
+    private final int perPage;
+
+    // The total number of pages last reported by the data source
+    private int totalPages;
+
+    // Whether any user was added, changed or removed since the last snapshot was taken
+    private boolean modified;
+
+    /**
+     * Creates a data set that keeps usernames on the heap.
+     */
+    UserDataSet() {
+        this(false);
+    }
+
+    /**
+     * Required args constructor.
+     * @param directUsernames Whether usernames are stored off-heap
+     */
+    UserDataSet(boolean directUsernames) {
+        this(directUsernames, 0);
+    }
+
+    /**
+     * All args constructor.
+     * @param directUsernames Whether usernames are stored off-heap
+     * @param perPage The page size the pages are read at, or 0 if the data source chooses it
+     */
+    UserDataSet(boolean directUsernames, int perPage) {
+        this.users = new UserColumns(directUsernames);
+        this.perPage = perPage;
+    }
+
+    /**
+     * Patches the users on a page into the data set. Users are only replaced when the page has a newer version of
+     * them, based on their updated_at value.
+     * @param page A page read from the user data source
+     */
+    synchronized void apply(UserResponse page) {
+        if (page.getTotalPages() != null) {
+            totalPages = page.getTotalPages();
+        }
+
+        int[] ids = new int[page.getData().size()];
+        int count = 0;
+        for (UserResponse.Data data : page.getData()) {
+            UserRecord user = UserRecord.of(data);
+            ids[count++] = user.getId();
+
+            int row = findRow(user.getId());
+            if (row == EMPTY) {
+                addRow(user);
+                modified = true;
+            } else if (isNewer(user, row)) {
+                users.set(row, user);
+                modified = true;
+            }
+        }
+
+        if (page.getPage() != null) {
+            markRead(page.getPage());
+            int[] pageIds = distinct(ids);
+            countPages(pageUserIds.put(page.getPage(), pageIds), pageIds);
+        }
+    }
+
+    /**
+     * Records that a page could not be read. Any users last read from the page are kept until it can be read again.
+     * @param page The page number
+     */
+    synchronized void markFailed(int page) {
+        if (failedPages.add(page)) {
+            modified = true;
+        }
+    }
+
+    /**
+     * Records that a page was read, even if it was not modified and so was not applied.
+     * @param page The page number
+     */
+    synchronized void markRead(int page) {
+        if (failedPages.remove(page)) {
+            modified = true;
+        }
+    }
+
+    /**
+     * Removes the pages beyond the last page reported by the data source, and any user who is no longer on a page.
+     */
+    synchronized void prune() {
+        SortedSet<Integer> removedPages = failedPages.tailSet(totalPages + 1);
+        if (!removedPages.isEmpty()) {
+            removedPages.clear();
+            modified = true;
+        }
+
+        Iterator<Map.Entry<Integer, int[]>> pages = pageUserIds.entrySet().iterator();
+        while (pages.hasNext()) {
+            Map.Entry<Integer, int[]> page = pages.next();
+            if (page.getKey() > totalPages) {
+                countPages(page.getValue(), new int[0]);
+                pages.remove();
+            }
+        }
+
+        for (int row = users.size() - 1; row >= 0; row--) {
+            if (pageCounts[row] == 0) {
+                removeRow(row);
+                modified = true;
+            }
+        }
+
+        // Usernames of removed and changed users stay in the pool until it is compacted
+        if (users.usernameCount() > users.size() * 2 + 1024) {
+            users.compactUsernames();
+        }
+    }
+
+    int getPerPage() {
+        return perPage;
+    }
+
+    synchronized int getTotalPages() {
+        return totalPages;
+    }
+
+    synchronized boolean isModified() {
+        return modified;
+    }
+
+    synchronized int size() {
+        return users.size();
+    }
+
+    /**
+     * Takes a snapshot of every user in the data set.
+     * @param clock Clock used to time stamp the snapshot and calculate its age
+     * @return A new snapshot of the users
+     */
+    synchronized UserSnapshot toSnapshot(Clock clock) {
+        modified = false;
+        return UserSnapshot.of(users, failedPages, clock);
+    }
+
+    /*
+     * A user is newer when its updated_at value is later than the existing user's. Users without an updated_at value
+     * are always treated as newer since there is no way to tell.
+     */
+    private boolean isNewer(UserRecord user, int row) {
+        long existingUpdatedAt = users.getUpdatedAt(row);
+        return user.getUpdatedAt() == UserRecord.NO_UPDATED_AT || existingUpdatedAt == UserRecord.NO_UPDATED_AT
+                || user.getUpdatedAt() > existingUpdatedAt;
+    }
+
+    /*
+     * Updates the number of pages that list each user, when a page that listed the old IDs now lists the new IDs. Both
+     * arrays are sorted, so they are walked together.
+     */
+    private void countPages(int[] oldIds, int[] newIds) {
+        int[] previous = (oldIds == null ? new int[0] : oldIds);
+        int i = 0;
+        int j = 0;
+
+        while (i < previous.length || j < newIds.length) {
+            if (j == newIds.length || (i < previous.length && previous[i] < newIds[j])) {
+                changePageCount(previous[i++], -1);
+            } else if (i == previous.length || newIds[j] < previous[i]) {
+                changePageCount(newIds[j++], 1);
+            } else {
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private void changePageCount(int id, int change) {
+        int row = findRow(id);
+        if (row != EMPTY) {
+            pageCounts[row] += change;
+        }
+    }
+
+    private int findRow(int id) {
+        int mask = rowsById.length - 1;
+        for (int slot = hash(id) & mask; rowsById[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (users.getId(rowsById[slot]) == id) {
+                return rowsById[slot];
+            }
+        }
+
+        return EMPTY;
+    }
+
+    private int findSlot(int id) {
+        int mask = rowsById.length - 1;
+        int slot = hash(id) & mask;
+        while (users.getId(rowsById[slot]) != id) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void addRow(UserRecord user) {
+        int row = users.add(user);
+        if (row == pageCounts.length) {
+            pageCounts = Arrays.copyOf(pageCounts, pageCounts.length * 2);
+        }
+        pageCounts[row] = 0;
+
+        if (users.size() * 2 > rowsById.length) {
+            rehash(rowsById.length * 2);
+        } else {
+            insert(row);
+        }
+    }
+
+    /*
+     * Removes a row by moving the last row into it. The emptied slot in the hash table is filled by shifting back any
+     * later entries in its probe sequence, so no tombstones are needed.
+     */
+    private void removeRow(int row) {
+        int mask = rowsById.length - 1;
+        int empty = findSlot(users.getId(row));
+
+        for (int slot = (empty + 1) & mask; rowsById[slot] != EMPTY; slot = (slot + 1) & mask) {
+            int home = hash(users.getId(rowsById[slot])) & mask;
+            boolean reachable = (empty <= slot ? empty < home && home <= slot : empty < home || home <= slot);
+            if (!reachable) {
+                rowsById[empty] = rowsById[slot];
+                empty = slot;
+            }
+        }
+        rowsById[empty] = EMPTY;
+
+        int last = users.size() - 1;
+        if (row != last) {
+            rowsById[findSlot(users.getId(last))] = row;
+            pageCounts[row] = pageCounts[last];
+        }
+        users.remove(row);
+    }
+
+    private void insert(int row) {
+        int mask = rowsById.length - 1;
+        int slot = hash(users.getId(row)) & mask;
+        while (rowsById[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+
+        rowsById[slot] = row;
+    }
+
+    private void rehash(int capacity) {
+        rowsById = newTable(capacity);
+        for (int row = 0; row < users.size(); row++) {
+            insert(row);
+        }
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int[] distinct(int[] ids) {
+        Arrays.sort(ids);
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[count++] = ids[i];
+            }
+        }
+
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+}
@@ -1,17 +1,54 @@
 package com.kennethheckler.solutions.threshold.user.repository;
 
-import org.springframework.http.ResponseEntity;
+import com.fasterxml.jackson.core.JsonFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpServerErrorException;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.util.DefaultUriBuilderFactory;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.retry.Retry;
 
+import javax.annotation.PreDestroy;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Provides the application the ability to read data from the configured user data source.
+ * Provides the application the ability to read data from the configured user data source. The data source may be
+ * split into shards that serve their own users through the same API. Shard 0 is the configured host, followed by any
+ * further shards in the order they are configured.
  *
  * @author Kenneth Heckler
  */
@@ -24,44 +61,505 @@ public class UserDataSource {
     // Injected, type-safe, externalized data source configurations
     private final UserDataSourceConfiguration configuration;
 
-    // Synchronous client used to perform HTTP requests
-    private final RestTemplate restTemplate = new RestTemplate();
+    // Pool of keep-alive connections to the data source, reused across page reads
+    private final ConnectionProvider connectionProvider;
+
+    // Non-blocking client used to perform HTTP requests over the pooled connections
+    private final WebClient webClient;
+
+    // The encoded URI of a page of each shard, up to the page number
+    private final List<String> pageURIPrefixes;
+
+    // The encoded page size query parameter, from the separator before it up to the page size
+    private final String perPageQuery;
+
+    // Streaming decoder that only reads the user fields the application needs
+    private final UserPageDecoder decoder = new UserPageDecoder(new JsonFactory());
+
+    // Coalesces concurrent reads of the same page of the same shard with the same filter
+    private final SingleFlight<PageKey, UserResponse> pageReads = new SingleFlight<>();
+
+    // The cache validators the data source returned with the last successful conditional read of each page of each
+    // shard, at the page size the shard was last read at
+    private final AtomicReferenceArray<ShardValidators> pageValidators;
+
+    // The injected registry that page read metrics are recorded in
+    private final MeterRegistry meterRegistry;
+
+    // The size of each page body read from the data source
+    private final DistributionSummary pageBytes;
+
+    // Retries of failed page reads
+    private final Counter retries;
+
+    // Duplicate requests sent for slow page reads
+    private final Counter hedges;
+
+    // The latencies of recent successful page reads from each shard, used to decide when to send a duplicate request
+    private final LatencyTracker[] pageLatencies;
+
+    // Chooses the page size requested from each shard, or null for each shard if the data source chooses it
+    private final PageSizer[] pageSizers;
+
+    // Runs the decoding of pages off the event loop, if so configured
+    private final UserWorkers workers;
 
     /**
      * Required args constructor.
      * @param configuration Injected, type-safe, externalized data source configurations
+     * @param webClientBuilder Injected builder preconfigured with the application's codecs and filters
+     * @param meterRegistry The injected registry that page read metrics are recorded in
+     * @param workers The injected workers that pages are decoded on
      */
-    UserDataSource(UserDataSourceConfiguration configuration) {
+    UserDataSource(UserDataSourceConfiguration configuration, WebClient.Builder webClientBuilder,
+                   MeterRegistry meterRegistry, UserWorkers workers) {
         this.configuration = configuration;
+        this.workers = workers;
+        this.connectionProvider = ConnectionProvider.builder("userdatasource")
+                .maxConnections(configuration.getMaxConnections())
+                .maxIdleTime(configuration.getMaxIdleTime())
+                .build();
+        this.webClient = webClientBuilder
+                .clientConnector(new ReactorClientHttpConnector(createHttpClient(configuration, connectionProvider)))
+                .build();
+        this.pageURIPrefixes = pageURIPrefixes(configuration);
+        this.perPageQuery = "&" + UriComponentsBuilder.newInstance()
+                .queryParam(configuration.getPerPageParam(), "")
+                .encode().build().getQuery();
+        this.pageLatencies = new LatencyTracker[pageURIPrefixes.size()];
+        this.pageSizers = new PageSizer[pageURIPrefixes.size()];
+        this.pageValidators = new AtomicReferenceArray<>(pageURIPrefixes.size());
+        for (int shard = 0; shard < pageLatencies.length; shard++) {
+            pageLatencies[shard] = new LatencyTracker(256, 32);
+            if (configuration.getPerPage() > 0) {
+                pageSizers[shard] = new PageSizer(configuration.getPerPage(), configuration.getMaxPerPage(),
+                        configuration.getMaxPageLatency(), configuration.getMaxPageSize().toBytes());
+                Gauge.builder("user.datasource.page.size", pageSizers[shard], PageSizer::getSize)
+                        .description("Number of users requested on each page from the user data source")
+                        .tag("shard", String.valueOf(shard))
+                        .register(meterRegistry);
+            }
+        }
+        this.meterRegistry = meterRegistry;
+        this.pageBytes = DistributionSummary.builder("user.datasource.page.bytes")
+                .description("Size of the page bodies read from the user data source")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.retries = Counter.builder("user.datasource.page.retries")
+                .description("Retries of failed page reads from the user data source")
+                .register(meterRegistry);
+        this.hedges = Counter.builder("user.datasource.page.hedges")
+                .description("Duplicate requests sent for slow page reads from the user data source")
+                .register(meterRegistry);
     }
 
     /**
-     * Read user data, grouped by pages, from the configured User Rest API data source
-     * @param page The page number to retrieve
-     * @return A response data wrapper of user data returned from the data source
+     * Creates the HTTP client for the data source from the configured pool, timeouts, protocols and compression.
+     * @param configuration The data source configurations
+     * @param connectionProvider The pool of connections to the data source
+     * @return The HTTP client
      */
-    UserResponse read(@Min(1) @Max(Integer.MAX_VALUE) int page) throws DataSourceException {
-        URI sourceURI = new DefaultUriBuilderFactory().builder()
+    static HttpClient createHttpClient(UserDataSourceConfiguration configuration,
+                                       ConnectionProvider connectionProvider) {
+        HttpProtocol[] protocols = (configuration.isHttp2()
+                ? new HttpProtocol[] {HttpProtocol.H2, HttpProtocol.HTTP11}
+                : new HttpProtocol[] {HttpProtocol.HTTP11});
+
+        return HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) configuration.getConnectTimeout().toMillis())
+                .responseTimeout(configuration.getReadTimeout())
+                .protocol(protocols)
+                .compress(configuration.isCompression())
+                .keepAlive(true);
+    }
+
+    /*
+     * Encodes the URI of a page of each shard, up to the page number.
+     */
+    private static List<String> pageURIPrefixes(UserDataSourceConfiguration configuration) {
+        List<UriComponentsBuilder> shards = new ArrayList<>();
+        shards.add(UriComponentsBuilder.newInstance()
                 .scheme(configuration.getScheme())
                 .host(configuration.getHost())
-                .path(configuration.getPath())
-                .queryParam(configuration.getPageParam(), page)
-                .build();
+                .port(configuration.getPort())
+                .path(configuration.getPath()));
+        for (String shard : configuration.getShards()) {
+            shards.add(UriComponentsBuilder.fromUriString(shard));
+        }
+
+        List<String> prefixes = new ArrayList<>(shards.size());
+        for (UriComponentsBuilder shard : shards) {
+            prefixes.add(shard.queryParam(configuration.getPageParam(), "").encode().build().toUriString());
+        }
+
+        return Collections.unmodifiableList(prefixes);
+    }
+
+    /**
+     * Closes the pooled connections to the data source.
+     */
+    @PreDestroy
+    void closeConnections() {
+        connectionProvider.dispose();
+    }
+
+    /**
+     * Counts the shards of the data source.
+     * @return The number of shards, at least 1
+     */
+    int getShardCount() {
+        return pageURIPrefixes.size();
+    }
+
+    /**
+     * Finds the page size to request from a shard for a crawl that starts now. Every page of the crawl must be read at
+     * this size, as the data source numbers pages by their size.
+     * @param shard The shard to read from
+     * @return The number of users to request on each page, or 0 to leave the page size to the data source
+     */
+    int getPageSize(int shard) {
+        return (pageSizers[shard] == null ? 0 : pageSizers[shard].getSize());
+    }
+
+    /**
+     * Read user data, grouped by pages, from a shard of the configured User Rest API data source, keeping only the
+     * users who pass the filter. The filter is applied while the page is decoded.
+     * <p>Concurrent reads of the same page with equal filters share a single request to the data source. Failed reads
+     * are retried, and if hedging is enabled, a duplicate request is sent when the read is slower than the configured
+     * percentile of recent reads from the shard. The first response wins.
+     * @param shard The shard to read from
+     * @param page The page number to retrieve
+     * @param perPage The number of users to request on the page, or 0 to leave the page size to the data source
+     * @param filter Tests the article counts of each user. Only users that pass are kept.
+     * @return A response data wrapper of user data returned from the data source, or a DataSourceException error
+     */
+    Mono<UserResponse> read(int shard, @Min(1) @Max(Integer.MAX_VALUE) int page, @Min(0) int perPage,
+                            UserFilter filter) {
+        return pageReads.execute(new PageKey(shard, page, perPage, filter),
+                () -> hedge(shard, exchange(shard, page, perPage, null, filter))
+                        .retryWhen(retrySpec())
+                        .map(PageRead::getResponse));
+    }
+
+    /**
+     * Read user data for a page of a shard only if it changed since the page was last read by this method. The ETag
+     * and Last-Modified validators returned by the previous conditional read are sent as If-None-Match and
+     * If-Modified-Since request headers. Failed reads are retried.
+     * <p>Validators are only kept for the pages of a shard at the page size it was last read at, as a new page size
+     * renumbers every page, and only for the pages the shard last reported to have.
+     * @param shard The shard to read from
+     * @param page The page number to retrieve
+     * @param perPage The number of users to request on the page, or 0 to leave the page size to the data source
+     * @return A response data wrapper of user data returned from the data source, empty if the data source reported
+     * the page as not modified, or a DataSourceException error
+     */
+    Mono<UserResponse> readIfModified(int shard, @Min(1) @Max(Integer.MAX_VALUE) int page, @Min(0) int perPage) {
+        return Mono.defer(() -> {
+            ShardValidators validators = pageValidators.updateAndGet(shard, current ->
+                    (current != null && current.perPage == perPage ? current : new ShardValidators(perPage)));
+
+            return exchange(shard, page, perPage, validators.pages.get(page), UserFilter.ALL)
+                    .retryWhen(retrySpec())
+                    .doOnNext(read -> validators.record(page, read));
+        }).map(PageRead::getResponse);
+    }
+
+    /*
+     * Sends a duplicate of the read if it is still running after the configured percentile of recent read latencies,
+     * and returns whichever succeeds first. Once the duplicate is sent, the read only fails if both copies fail, with
+     * the first failure. A failure of the original read before then is not held back, so that it can be retried
+     * straight away.
+     */
+    private Mono<PageRead> hedge(int shard, Mono<PageRead> read) {
+        if (!configuration.isHedging()) {
+            return read;
+        }
+
+        return Mono.defer(() -> {
+            Duration delay = pageLatencies[shard].percentile(configuration.getHedgePercentile());
+            if (delay == null) {
+                return read;
+            }
+
+            AtomicBoolean hedged = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Mono<PageRead> duplicate = Mono.delay(delay)
+                    .doOnNext(tick -> {
+                        hedged.set(true);
+                        hedges.increment();
+                    })
+                    .then(read)
+                    .onErrorResume(e -> {
+                        failure.compareAndSet(null, e);
+                        return Mono.empty();
+                    });
+            Mono<PageRead> original = read.onErrorResume(e -> {
+                if (!hedged.get()) {
+                    return Mono.error(e);
+                }
+                failure.compareAndSet(null, e);
+                return Mono.empty();
+            });
+
+            return Flux.merge(original, duplicate).next()
+                    .switchIfEmpty(Mono.defer(() -> (failure.get() == null
+                            ? Mono.<PageRead>empty() : Mono.<PageRead>error(failure.get()))));
+        });
+    }
+
+    /*
+     * Retries data source errors that may be temporary, such as an unreachable service or a server error, after a
+     * jittered exponential backoff. The error of the last attempt is propagated as is.
+     */
+    private Retry retrySpec() {
+        return Retry.backoff(configuration.getRetries(), configuration.getRetryBackoff())
+                .jitter(0.5)
+                .filter(UserDataSource::isRetryable)
+                .doBeforeRetry(signal -> retries.increment())
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        Throwable cause = e.getCause();
+        if (!(e instanceof DataSourceException)) {
+            return false;
+        }
+        if (cause instanceof RestClientResponseException) {
+            int status = ((RestClientResponseException) cause).getRawStatusCode();
+            return status >= 500 || status == HttpStatus.TOO_MANY_REQUESTS.value();
+        }
+
+        return cause instanceof WebClientRequestException;
+    }
 
-        ResponseEntity<UserResponse> response = restTemplate.getForEntity(sourceURI, UserResponse.class);
-        handleHttpError(response);
+    /*
+     * Performs the HTTP request for a page at a page size, sending any given validators, and returns the page along
+     * with the validators the data source returned with it. The time taken to read and decode the page is recorded by
+     * status, the latencies of successful reads are tracked for hedging, and pages read at a requested size are
+     * reported to the shard's page sizer.
+     */
+    private Mono<PageRead> exchange(int shard, int page, int perPage, PageValidators validators,
+                                    UserFilter filter) {
+        URI sourceURI = URI.create(pageURIPrefixes.get(shard) + page + (perPage > 0 ? perPageQuery + perPage : ""));
+        PageSizer pageSizer = (perPage > 0 ? pageSizers[shard] : null);
+
+        boolean conditional = (validators != null);
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            long start = System.nanoTime();
 
-        return response.getBody();
+            return webClient.get()
+                    .uri(sourceURI)
+                    .headers(headers -> {
+                        if (conditional) {
+                            validators.applyTo(headers);
+                        }
+                    })
+                    .exchangeToMono(response -> toPageRead(response, filter)
+                            .doOnNext(read -> {
+                                if (pageSizer != null) {
+                                    pageSizer.record(perPage, read.getResponse().getPerPage(),
+                                            System.nanoTime() - start, read.getBytes());
+                                }
+                            })
+                            .doOnError(DataBufferLimitException.class, e -> {
+                                if (pageSizer != null) {
+                                    pageSizer.recordTooLarge(perPage);
+                                }
+                            })
+                            .doFinally(signal -> {
+                                long nanos = sample.stop(
+                                        pageReadTimer(shard, String.valueOf(response.rawStatusCode()), conditional));
+                                if (signal == SignalType.ON_COMPLETE && HttpStatus.Series.resolve(
+                                        response.rawStatusCode()) == HttpStatus.Series.SUCCESSFUL) {
+                                    pageLatencies[shard].record(nanos);
+                                }
+                            }))
+                    .doOnError(WebClientRequestException.class,
+                            e -> sample.stop(pageReadTimer(shard, "CLIENT_ERROR", conditional)));
+        }).onErrorMap(WebClientRequestException.class,
+                e -> new DataSourceException(DS_NAME, "Unable to reach the service!", e))
+                .onErrorMap(DataBufferLimitException.class,
+                        e -> new DataSourceException(DS_NAME, "Service returned a page larger than "
+                                + configuration.getMaxPageSize() + "!", e));
+    }
+
+    /*
+     * Converts a response to a page read: empty if the page was not modified, or an error for an HTTP error status.
+     */
+    private Mono<PageRead> toPageRead(ClientResponse response, UserFilter filter) {
+        if (response.rawStatusCode() == HttpStatus.NOT_MODIFIED.value()) {
+            return response.releaseBody().then(Mono.<PageRead>empty());
+        }
+        if (response.rawStatusCode() >= 400) {
+            return handleHttpError(response).flatMap(Mono::<PageRead>error);
+        }
+
+        return decode(response, filter, PageValidators.of(response.headers().asHttpHeaders()));
+    }
+
+    private Timer pageReadTimer(int shard, String status, boolean conditional) {
+        return Timer.builder("user.datasource.page.read")
+                .description("Time taken to read and decode a page from the user data source")
+                .tag("shard", String.valueOf(shard))
+                .tag("status", status)
+                .tag("conditional", String.valueOf(conditional))
+                .register(meterRegistry);
+    }
+
+    /*
+     * Joins the response body into a single buffer and decodes it with the streaming decoder, on a virtual thread if
+     * so configured. A body larger than the configured maximum page size is given up on with a
+     * DataBufferLimitException rather than buffered. The buffer is released once the input stream is closed.
+     */
+    private Mono<PageRead> decode(ClientResponse response, UserFilter filter, PageValidators validators) {
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, configuration.getMaxPageSize().toBytes());
+        return workers.offload(DataBufferUtils.join(response.body(BodyExtractors.toDataBuffers()), maxBytes))
+                .<PageRead>handle((buffer, sink) -> {
+                    int bytes = buffer.readableByteCount();
+                    pageBytes.record(bytes);
+                    try (InputStream in = buffer.asInputStream(true)) {
+                        sink.next(new PageRead(decoder.decode(in, filter), validators, bytes));
+                    } catch (IOException e) {
+                        sink.error(new DataSourceException(DS_NAME, "Service returned an unreadable page!", e));
+                    }
+                });
     }
 
     /*
      * Provides some basic handling of HTTP errors. It converts an HTTP error response to a DataSourceException so that
-     * it may be handled by the application.
+     * it may be handled by the application. Status codes that HttpStatus does not define, such as those some proxies
+     * and CDNs send, are kept as they are.
+     */
+    private Mono<DataSourceException> handleHttpError(ClientResponse response) {
+        int rawStatus = response.rawStatusCode();
+        HttpStatus status = HttpStatus.resolve(rawStatus);
+
+        return response.releaseBody()
+                .thenReturn(new DataSourceException(DS_NAME, "Service returned an HTTP error code!", status != null
+                        ? new HttpServerErrorException(status, status.getReasonPhrase())
+                        : new UnknownHttpStatusCodeException(rawStatus, "", null, null, null)));
+    }
+
+    /*
+     * Identifies identical page reads: the same page of the same shard at the same page size decoded with equal
+     * filters.
+     */
+    private static final class PageKey {
+
+        private final int shard;
+
+        private final int page;
+
+        private final int perPage;
+
+        private final UserFilter filter;
+
+        private PageKey(int shard, int page, int perPage, UserFilter filter) {
+            this.shard = shard;
+            this.page = page;
+            this.perPage = perPage;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PageKey key = (PageKey) o;
+            return shard == key.shard && page == key.page && perPage == key.perPage && filter.equals(key.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * shard + page) + perPage) + filter.hashCode();
+        }
+    }
+
+    /*
+     * A page read from the data source, the HTTP cache validators returned with it and the size of its body.
+     */
+    private static final class PageRead {
+
+        private final UserResponse response;
+
+        private final PageValidators validators;
+
+        private final int bytes;
+
+        private PageRead(UserResponse response, PageValidators validators, int bytes) {
+            this.response = response;
+            this.validators = validators;
+            this.bytes = bytes;
+        }
+
+        private UserResponse getResponse() {
+            return response;
+        }
+
+        private PageValidators getValidators() {
+            return validators;
+        }
+
+        private int getBytes() {
+            return bytes;
+        }
+    }
+
+    /*
+     * The HTTP cache validators of the pages of a shard read at one page size, keyed by page number.
+     */
+    private static final class ShardValidators {
+
+        private final int perPage;
+
+        private final Map<Integer, PageValidators> pages = new ConcurrentHashMap<>();
+
+        private ShardValidators(int perPage) {
+            this.perPage = perPage;
+        }
+
+        /*
+         * Keeps the validators of a page, and forgets the pages past the last one when the total number of pages is
+         * returned.
+         */
+        private void record(int page, PageRead read) {
+            pages.put(page, read.getValidators());
+
+            Integer totalPages = read.getResponse().getTotalPages();
+            if (totalPages != null) {
+                pages.keySet().removeIf(number -> number > Math.max(1, totalPages));
+            }
+        }
+    }
+
+    /*
+     * The HTTP cache validators returned with a page.
      */
-    private void handleHttpError(ResponseEntity<UserResponse> response) throws DataSourceException {
-        if (response.getStatusCode().isError()) {
-            throw new DataSourceException(DS_NAME, "Service returned an HTTP error code!",
-                    new HttpServerErrorException(response.getStatusCode(), response.getStatusCode().getReasonPhrase()));
+    private static final class PageValidators {
+
+        // The entity tag of the page, or null if none was returned
+        private final String eTag;
+
+        // The last modified date of the page in milliseconds since the epoch, or -1 if none was returned
+        private final long lastModified;
+
+        private PageValidators(String eTag, long lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        private static PageValidators of(HttpHeaders headers) {
+            return new PageValidators(headers.getETag(), headers.getLastModified());
+        }
+
+        private void applyTo(HttpHeaders headers) {
+            if (eTag != null) {
+                headers.setIfNoneMatch(eTag);
+            }
+            if (lastModified >= 0) {
+                headers.setIfModifiedSince(lastModified);
+            }
         }
     }
 }
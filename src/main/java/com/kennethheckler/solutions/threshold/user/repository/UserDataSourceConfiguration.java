@@ -4,9 +4,15 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.boot.context.properties.ConstructorBinding;
 import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.List;
 
 /**
  * Type-safe configuration properties bean for Data Sources. Spring will automatically bind any externalized properties
@@ -27,31 +33,153 @@ public class UserDataSourceConfiguration {
     // The data source's host name
     private final String host;
 
+    // The data source's port, or -1 for the scheme's default port
+    private final int port;
+
     // The data source's URI path to the user endpoint
     private final String path;
 
     // The data source's page query parameter name
     private final String pageParam;
 
+    // The data source's page size query parameter name
+    private final String perPageParam;
+
+    // The number of users requested on each page, or 0 to leave the page size to the data source
+    private final int perPage;
+
+    // The largest page size probed for, once pages of the current size are read within the limits below
+    private final int maxPerPage;
+
+    // The median latency of page reads above which the page size is backed off
+    private final Duration maxPageLatency;
+
+    // The page body size above which the page size is backed off, and the largest page body that is read
+    private final DataSize maxPageSize;
+
+    // The maximum number of pages requested from the data source at the same time
+    private final int parallelism;
+
+    // The maximum number of pooled connections kept open to the data source
+    private final int maxConnections;
+
+    // How long a pooled connection may sit idle before it is closed
+    private final Duration maxIdleTime;
+
+    // How long to wait for a connection to the data source to be established
+    private final Duration connectTimeout;
+
+    // How long to wait for the data source to respond to a request
+    private final Duration readTimeout;
+
+    // Whether to negotiate HTTP/2 with the data source, falling back to HTTP/1.1
+    private final boolean http2;
+
+    // Whether to ask the data source for gzip compressed responses
+    private final boolean compression;
+
+    // The number of times a failed page read is retried
+    private final int retries;
+
+    // The delay before the first retry of a page read, doubled for each further retry and jittered
+    private final Duration retryBackoff;
+
+    // Whether a duplicate request is sent for a page read that is slower than most
+    private final boolean hedging;
+
+    // The percentile of recent page read latencies after which a duplicate request is sent
+    private final int hedgePercentile;
+
+    // The base URIs of further shards of the data source, each serving its own users through the same API
+    private final List<String> shards;
+
     /**
      * All args constructor.
      * @param scheme The data source's URI scheme, such as http, https, file. Defaults to "https"
      * @param host The data source's host name - required
+     * @param port The data source's port, such as that of a local stand-in for the data source. Defaults to the
+     *             scheme's default port
      * @param path TThe data source's URI path to the user endpoint - required
      * @param pageParam TThe data source's page query parameter name. Defaults to "page"
+     * @param perPageParam The data source's page size query parameter name. Defaults to "per_page"
+     * @param perPage The number of users requested on each page, which the page size starts from. Defaults to 0, which
+     *                leaves the page size to the data source
+     * @param maxPerPage The largest page size probed for, as long as pages are read within the latency and size limits
+     *                   and the data source honors the size. Defaults to 0, which never probes past perPage
+     * @param maxPageLatency The median latency of page reads above which the page size is backed off. Defaults to 2
+     *                       seconds
+     * @param maxPageSize The page body size above which the page size is backed off, and the largest page body that is
+     *                    read. A larger page fails to be read. Defaults to 4 megabytes
+     * @param parallelism The maximum number of pages requested from the data source at the same time. Defaults to 8
+     * @param maxConnections The maximum number of pooled connections kept open to the data source. Defaults to 16
+     * @param maxIdleTime How long a pooled connection may sit idle before it is closed. Defaults to 30 seconds
+     * @param connectTimeout How long to wait for a connection to the data source to be established. Defaults to 5
+     *                       seconds
+     * @param readTimeout How long to wait for the data source to respond to a request. Defaults to 10 seconds
+     * @param http2 Whether to negotiate HTTP/2 with the data source, falling back to HTTP/1.1. Defaults to false
+     * @param compression Whether to ask the data source for gzip compressed responses. Defaults to true
+     * @param retries The number of times a failed page read is retried. Defaults to 2
+     * @param retryBackoff The delay before the first retry of a page read, doubled for each further retry and
+     *                     jittered. Defaults to 100 milliseconds
+     * @param hedging Whether a duplicate request is sent for a page read that is slower than most. Defaults to false
+     * @param hedgePercentile The percentile of recent page read latencies after which a duplicate request is sent.
+     *                        Defaults to 95
+     * @param shards The base URIs of further shards of the data source, each serving its own users through the same
+     *               API, such as https://eu.example.com/api/article_users. Defaults to none
      */
     @ConstructorBinding
-    public UserDataSourceConfiguration(@DefaultValue("https") String scheme, @NotEmpty String host, @NotEmpty String path, @DefaultValue("page") String pageParam) {
+    public UserDataSourceConfiguration(@DefaultValue("https") String scheme, @NotEmpty String host,
+                                       @DefaultValue("-1") @Min(-1) @Max(65535) int port, @NotEmpty String path,
+                                       @DefaultValue("page") String pageParam,
+                                       @DefaultValue("per_page") @NotEmpty String perPageParam,
+                                       @DefaultValue("0") @Min(0) int perPage,
+                                       @DefaultValue("0") @Min(0) int maxPerPage,
+                                       @DefaultValue("2s") @NotNull Duration maxPageLatency,
+                                       @DefaultValue("4MB") @NotNull DataSize maxPageSize,
+                                       @DefaultValue("8") @Min(1) int parallelism,
+                                       @DefaultValue("16") @Min(1) int maxConnections,
+                                       @DefaultValue("30s") @NotNull Duration maxIdleTime,
+                                       @DefaultValue("5s") @NotNull Duration connectTimeout,
+                                       @DefaultValue("10s") @NotNull Duration readTimeout,
+                                       @DefaultValue("false") boolean http2,
+                                       @DefaultValue("true") boolean compression,
+                                       @DefaultValue("2") @Min(0) int retries,
+                                       @DefaultValue("100ms") @NotNull Duration retryBackoff,
+                                       @DefaultValue("false") boolean hedging,
+                                       @DefaultValue("95") @Min(1) @Max(99) int hedgePercentile,
+                                       @DefaultValue List<@NotEmpty String> shards) {
         this.scheme = scheme;
         this.host = host;
+        this.port = port;
         this.path = path;
         this.pageParam = pageParam;
+        this.perPageParam = perPageParam;
+        this.perPage = perPage;
+        this.maxPerPage = maxPerPage;
+        this.maxPageLatency = maxPageLatency;
+        this.maxPageSize = maxPageSize;
+        this.parallelism = parallelism;
+        this.maxConnections = maxConnections;
+        this.maxIdleTime = maxIdleTime;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.http2 = http2;
+        this.compression = compression;
+        this.retries = retries;
+        this.retryBackoff = retryBackoff;
+        this.hedging = hedging;
+        this.hedgePercentile = hedgePercentile;
+        this.shards = shards;
     }
 
     public String getHost() {
         return host;
     }
 
+    public int getPort() {
+        return port;
+    }
+
     public String getPath() {
         return path;
     }
@@ -60,7 +188,75 @@ public class UserDataSourceConfiguration {
         return pageParam;
     }
 
+    public String getPerPageParam() {
+        return perPageParam;
+    }
+
+    public int getPerPage() {
+        return perPage;
+    }
+
+    public int getMaxPerPage() {
+        return maxPerPage;
+    }
+
+    public Duration getMaxPageLatency() {
+        return maxPageLatency;
+    }
+
+    public DataSize getMaxPageSize() {
+        return maxPageSize;
+    }
+
     public String getScheme() {
         return scheme;
     }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public Duration getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public Duration getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public List<String> getShards() {
+        return shards;
+    }
 }
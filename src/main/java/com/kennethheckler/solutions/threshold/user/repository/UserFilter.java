@@ -0,0 +1,34 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+/**
+ * Tests the article counts of each user as a page is decoded, so users who cannot match a query are never allocated.
+ * Concurrent reads of the same page are only coalesced if their filters are equal, so filters that keep the same users
+ * should be equal.
+ *
+ * @author Kenneth Heckler
+ * @see UserPageDecoder
+ */
+@FunctionalInterface
+interface UserFilter {
+
+    // Filter that keeps every user
+    UserFilter ALL = (submitted, submissionCount) -> true;
+
+    /**
+     * Tests a user.
+     * @param submitted Total number of articles submitted by the user, 0 if unknown
+     * @param submissionCount The number of submitted articles that are approved, 0 if unknown
+     * @return True if the user is kept
+     */
+    boolean test(int submitted, int submissionCount);
+
+    /**
+     * Creates the filter that keeps exactly the users who match a query, leaving aside the number of top users to
+     * keep. The approval rate is ranked the same way as {@link UserRecord}, so it is compared exactly.
+     * @param query The user query
+     * @return A new filter, equal to the filter of any query that keeps the same users
+     */
+    static UserFilter of(UserQuery query) {
+        return new UserQueryFilter(query);
+    }
+}
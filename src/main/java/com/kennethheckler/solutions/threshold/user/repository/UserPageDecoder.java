@@ -0,0 +1,195 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming decoder for pages read from the user data source. Instead of binding every field of every user, it walks
+ * the JSON tokens and only reads the page metadata and the id, username, submitted, submission_count and updated_at
+ * fields of each user. All other fields are skipped without being decoded.
+ * <p>A filter on the article counts is applied as each user is read, so users that are filtered out are never
+ * allocated.
+ *
+ * @author Kenneth Heckler
+ * @see UserResponse
+ */
+final class UserPageDecoder {
+
+    // Thread-safe factory for the token parsers
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Required args constructor.
+     * @param jsonFactory Thread-safe factory for the token parsers
+     */
+    UserPageDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Decodes a page of users.
+     * @param in The JSON page, as returned by the user data source
+     * @param filter Tests the article counts of each user. Only users that pass are kept.
+     * @return A response data wrapper holding the page metadata and the users that passed the filter. Fields that are
+     * not decoded are null.
+     * @throws IOException If the page could not be read or is not valid JSON
+     */
+    UserResponse decode(InputStream in, UserFilter filter) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            Integer page = null;
+            Integer perPage = null;
+            Integer total = null;
+            Integer totalPages = null;
+            List<UserResponse.Data> data = new ArrayList<>();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                switch (field) {
+                    case "page":
+                        page = readInteger(parser);
+                        break;
+                    case "per_page":
+                        perPage = readInteger(parser);
+                        break;
+                    case "total":
+                        total = readInteger(parser);
+                        break;
+                    case "total_pages":
+                        totalPages = readInteger(parser);
+                        break;
+                    case "data":
+                        readUsers(parser, filter, data);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            return new UserResponse(page, perPage, total, totalPages, data);
+        }
+    }
+
+    /*
+     * Reads the array of users, keeping those that pass the filter.
+     */
+    private static void readUsers(JsonParser parser, UserFilter filter, List<UserResponse.Data> data)
+            throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+
+            Integer id = null;
+            String username = null;
+            Integer submitted = null;
+            Integer submissionCount = null;
+            String updatedAt = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                switch (field) {
+                    case "id":
+                        id = readInteger(parser);
+                        break;
+                    case "username":
+                        username = readText(parser);
+                        break;
+                    case "submitted":
+                        submitted = readInteger(parser);
+                        break;
+                    case "submission_count":
+                        submissionCount = readInteger(parser);
+                        break;
+                    case "updated_at":
+                        updatedAt = readText(parser);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            if (filter.test(UserRecord.clamp(submitted), UserRecord.clamp(submissionCount))) {
+                data.add(new UserResponse.Data(id, username, null, submitted, toInstant(parser, updatedAt),
+                        submissionCount, null, null));
+            }
+        }
+    }
+
+    /*
+     * Reads an integer value, which the data source may also send as a string. Anything else is skipped as null.
+     */
+    private static Integer readInteger(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+                return parser.getIntValue();
+            case VALUE_STRING:
+                String text = parser.getText().trim();
+                try {
+                    return (text.isEmpty() ? null : Integer.valueOf(text));
+                } catch (NumberFormatException e) {
+                    throw new JsonParseException(parser, "Expected an integer but found \"" + text + "\"", e);
+                }
+            default:
+                parser.skipChildren();
+                return null;
+        }
+    }
+
+    /*
+     * Reads a scalar value as text. Anything else is skipped as null.
+     */
+    private static String readText(JsonParser parser) throws IOException {
+        if (parser.currentToken().isScalarValue() && parser.currentToken() != JsonToken.VALUE_NULL) {
+            return parser.getText();
+        }
+
+        parser.skipChildren();
+        return null;
+    }
+
+    /*
+     * Converts an updated_at value, either an ISO-8601 instant or a number of seconds since the epoch, to an Instant.
+     */
+    private static Instant toInstant(JsonParser parser, String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+
+        try {
+            if (value.indexOf('T') < 0) {
+                BigDecimal seconds = new BigDecimal(value);
+                return Instant.ofEpochSecond(seconds.longValue(),
+                        seconds.remainder(BigDecimal.ONE).movePointRight(9).intValue());
+            }
+            return OffsetDateTime.parse(value).toInstant();
+        } catch (NumberFormatException | DateTimeParseException | ArithmeticException e) {
+            throw new JsonParseException(parser, "Expected an instant but found \"" + value + "\"", e);
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
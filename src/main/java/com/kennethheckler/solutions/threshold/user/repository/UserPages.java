@@ -0,0 +1,81 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The result of reading every page of the user data source. Pages that still failed after being retried are left out
+ * and listed as failed, so callers get the users that could be read instead of nothing at all. If the read had a
+ * deadline that passed first, the pages that were not read by then are left out and the result is truncated.
+ *
+ * @author Kenneth Heckler
+ */
+public final class UserPages {
+
+    // The pages that were read, in page order
+    private final List<UserResponse> pages;
+
+    // The numbers of the pages that could not be read, in ascending order
+    private final List<Integer> failedPages;
+
+    // Whether the deadline passed before every page was read
+    private final boolean truncated;
+
+    /**
+     * All args constructor.
+     * @param pages The pages that were read, in page order
+     * @param failedPages The numbers of the pages that could not be read, in any order
+     * @param truncated Whether the deadline passed before every page was read
+     */
+    UserPages(List<UserResponse> pages, Collection<Integer> failedPages, boolean truncated) {
+        this.pages = Collections.unmodifiableList(pages);
+        this.failedPages = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(failedPages)));
+        this.truncated = truncated;
+    }
+
+    /**
+     * Keeps only the users who pass a filter, such as when pages that were read for every user are shared between
+     * queries. The failed pages and the truncation are kept as they are.
+     * @param filter Tests the article counts of each user. Only users that pass are kept.
+     * @return New pages holding the users who pass
+     */
+    UserPages filter(UserFilter filter) {
+        List<UserResponse> filtered = new ArrayList<>(pages.size());
+        for (UserResponse page : pages) {
+            List<UserResponse.Data> data = new ArrayList<>();
+            for (UserResponse.Data user : page.getData()) {
+                if (filter.test(UserRecord.clamp(user.getSubmitted()), UserRecord.clamp(user.getSubmissionCount()))) {
+                    data.add(user);
+                }
+            }
+
+            filtered.add(new UserResponse(page.getPage(), page.getPerPage(), page.getTotal(), page.getTotalPages(),
+                    data));
+        }
+
+        return new UserPages(filtered, failedPages, truncated);
+    }
+
+    public List<UserResponse> getPages() {
+        return pages;
+    }
+
+    public List<Integer> getFailedPages() {
+        return failedPages;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Whether every page was read.
+     * @return True if no page failed and the deadline did not pass first
+     */
+    public boolean isComplete() {
+        return failedPages.isEmpty() && !truncated;
+    }
+}
@@ -0,0 +1,165 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * Query for the users of a UserSnapshot. On top of the approval percentage threshold, a query can bound the approval
+ * rate from below and above, leave out users with too few submitted articles to have a meaningful approval rate, and
+ * keep only the users with the highest approval rates. The users are listed from the lowest to the highest approval
+ * rate, or the other way round. Approval rates are compared exactly against the threshold and the bounds.
+ * <p>Each backend of the repository applies the query in its own way: a snapshot finds the users through its sorted
+ * index, while a crawl of the data source only sorts the users it keeps. A crawl for a query with bounds or a minimum
+ * number of submitted articles drops the users who do not match as pages are decoded. A crawl for a threshold alone
+ * decodes every user and drops them afterwards, so that it can be shared by queries on any threshold.
+ *
+ * @author Kenneth Heckler
+ * @see UserSnapshot#find(UserQuery, UserCursor)
+ * @see UserRepository#findUsers(UserQuery, java.time.Duration)
+ */
+public final class UserQuery {
+
+    // The approval percentage that users must be above
+    private final int threshold;
+
+    // The lowest approval percentage of the users, inclusive, or null for no lower bound beyond the threshold
+    private final Integer min;
+
+    // The highest approval percentage of the users, inclusive, or null for no upper bound
+    private final Integer max;
+
+    // The fewest articles the users must have submitted
+    private final int minSubmitted;
+
+    // The number of users with the highest approval rates to keep, or null to keep every user
+    private final Integer top;
+
+    // The order the users are listed in
+    private final Order order;
+
+    /**
+     * All args constructor.
+     * @param threshold The approval percentage that users must be above
+     * @param min The lowest approval percentage of the users, inclusive, or null for no lower bound beyond the
+     *            threshold
+     * @param max The highest approval percentage of the users, inclusive, or null for no upper bound
+     * @param minSubmitted The fewest articles the users must have submitted
+     * @param top The number of users with the highest approval rates to keep, or null to keep every user
+     * @param order The order the users are listed in. Defaults to ASCENDING when null
+     */
+    public UserQuery(int threshold, Integer min, Integer max, int minSubmitted, Integer top, Order order) {
+        this.threshold = threshold;
+        this.min = min;
+        this.max = max;
+        this.minSubmitted = minSubmitted;
+        this.top = top;
+        this.order = (order == null ? Order.ASCENDING : order);
+    }
+
+    /**
+     * Creates a query for every user above a threshold.
+     * @param threshold The approval percentage that users must be above
+     * @return A new query
+     */
+    public static UserQuery of(int threshold) {
+        return new UserQuery(threshold, null, null, 0, null, Order.ASCENDING);
+    }
+
+    /**
+     * Checks whether the query narrows the users down beyond the threshold or lists them in another order.
+     * @return True if any bound, the minimum number of submitted articles or the number of top users is set, or the
+     * users are listed in descending order
+     */
+    public boolean isFiltered() {
+        return min != null || max != null || minSubmitted > 0 || top != null || order != Order.ASCENDING;
+    }
+
+    /**
+     * Checks whether a user matches the query, leaving aside the number of top users to keep.
+     * @param user The user
+     * @return True if the user has an approval rate within the bounds and submitted enough articles
+     */
+    public boolean matches(UserRecord user) {
+        return user.hasApprovalRate() && user.getApprovalRank() >= getLowestRank()
+                && user.getApprovalRank() <= getHighestRank() && user.getSubmitted() >= minSubmitted;
+    }
+
+    /**
+     * Calculates the lowest approval rank of the users, from the threshold and the lower bound.
+     * @return The lowest approval rank, inclusive
+     * @see UserRecord#rankOf(int)
+     */
+    int getLowestRank() {
+        return Math.max(UserRecord.rankOf(threshold) + 1, min == null ? 0 : UserRecord.rankOf(min));
+    }
+
+    /**
+     * Calculates the highest approval rank of the users, from the upper bound.
+     * @return The highest approval rank, inclusive
+     */
+    int getHighestRank() {
+        return (max == null ? UserSnapshot.APPROVAL_RANKS - 1 : UserRecord.rankOf(max));
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public Integer getMin() {
+        return min;
+    }
+
+    public Integer getMax() {
+        return max;
+    }
+
+    public int getMinSubmitted() {
+        return minSubmitted;
+    }
+
+    public Integer getTop() {
+        return top;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserQuery query = (UserQuery) o;
+        return threshold == query.threshold && minSubmitted == query.minSubmitted && Objects.equals(min, query.min)
+                && Objects.equals(max, query.max) && Objects.equals(top, query.top) && order == query.order;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(threshold, min, max, minSubmitted, top, order);
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", UserQuery.class.getSimpleName() + "[", "]")
+                .add("threshold=" + threshold)
+                .add("min=" + min)
+                .add("max=" + max)
+                .add("minSubmitted=" + minSubmitted)
+                .add("top=" + top)
+                .add("order=" + order)
+                .toString();
+    }
+
+    /**
+     * The order users are listed in. Users with the same approval rate are listed by user ID in the same direction.
+     */
+    public enum Order {
+
+        // From the lowest to the highest approval rate
+        ASCENDING,
+
+        // From the highest to the lowest approval rate
+        DESCENDING
+    }
+}
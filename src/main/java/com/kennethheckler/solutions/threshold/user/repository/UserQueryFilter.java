@@ -0,0 +1,63 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.util.StringJoiner;
+
+/**
+ * The filter that keeps exactly the users who match a query, leaving aside the number of top users to keep. The
+ * approval rate is ranked the same way as {@link UserRecord}, so it is compared exactly. Filters of queries that keep
+ * the same users are equal, so that concurrent reads for them can be coalesced.
+ *
+ * @author Kenneth Heckler
+ * @see UserFilter#of(UserQuery)
+ */
+final class UserQueryFilter implements UserFilter {
+
+    // The lowest approval rank of the users kept, inclusive
+    private final int lowestRank;
+
+    // The highest approval rank of the users kept, inclusive
+    private final int highestRank;
+
+    // The fewest articles the users kept must have submitted
+    private final int minSubmitted;
+
+    /**
+     * Required args constructor.
+     * @param query The user query
+     */
+    UserQueryFilter(UserQuery query) {
+        this.lowestRank = query.getLowestRank();
+        this.highestRank = query.getHighestRank();
+        this.minSubmitted = query.getMinSubmitted();
+    }
+
+    @Override
+    public boolean test(int submitted, int submissionCount) {
+        int approvalRank = UserRecord.approvalRank(submitted, submissionCount);
+        return approvalRank != UserRecord.NO_APPROVAL_RATE && approvalRank >= lowestRank
+                && approvalRank <= highestRank && submitted >= minSubmitted;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserQueryFilter filter = (UserQueryFilter) o;
+        return lowestRank == filter.lowestRank && highestRank == filter.highestRank
+                && minSubmitted == filter.minSubmitted;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * lowestRank + highestRank) + minSubmitted;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", UserQueryFilter.class.getSimpleName() + "[", "]")
+                .add("lowestRank=" + lowestRank)
+                .add("highestRank=" + highestRank)
+                .add("minSubmitted=" + minSubmitted)
+                .toString();
+    }
+}
@@ -0,0 +1,204 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * Immutable, compact record of a user, computed once when the user is read from the user data source. The username is
+ * normalized, the counts are clamped to zero, and the approval rate is stored as an approval rank, so sorting and
+ * filtering only ever compare primitives. The rank is three times the approval rate in tenths of a percent, rounded
+ * half up, plus one more if the exact rate is at the rounded tenth and two more if it is above it. Ranks therefore
+ * order users the same way as their exact approval rates wherever the rounded tenths differ, and tell users below,
+ * at, and above any whole percentage apart exactly, which rounded tenths alone cannot.
+ *
+ * @author Kenneth Heckler
+ */
+public final class UserRecord {
+
+    // Approval rate of users whose approval rate is not defined, such as users with no submissions
+    public static final int NO_APPROVAL_RATE = -1;
+
+    // Username of users who did not provide one
+    public static final String NO_USERNAME = "Name Not Provided";
+
+    // Update time of users whose update time is not known
+    static final long NO_UPDATED_AT = Long.MIN_VALUE;
+
+    // Unique ID of the user
+    private final int id;
+
+    // The normalized username of the user
+    private final String username;
+
+    // Total number of articles submitted by the user, never negative
+    private final int submitted;
+
+    // The number of submitted articles that are approved, never negative
+    private final int submissionCount;
+
+    // The approval rank, or NO_APPROVAL_RATE
+    private final int approvalRank;
+
+    // The date and time of the last update to the user, in milliseconds since the epoch, or NO_UPDATED_AT
+    private final long updatedAt;
+
+    /**
+     * All args constructor. Values must already be normalized.
+     * @param id Unique ID of the user
+     * @param username The normalized username of the user
+     * @param submitted Total number of articles submitted by the user, never negative
+     * @param submissionCount The number of submitted articles that are approved, never negative
+     * @param approvalRank The approval rank, or NO_APPROVAL_RATE
+     * @param updatedAt The date and time of the last update, in milliseconds since the epoch, or NO_UPDATED_AT
+     */
+    UserRecord(int id, String username, int submitted, int submissionCount, int approvalRank, long updatedAt) {
+        this.id = id;
+        this.username = username;
+        this.submitted = submitted;
+        this.submissionCount = submissionCount;
+        this.approvalRank = approvalRank;
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * Creates the record of a user read from the user data source.
+     * @param data The user read from the user data source
+     * @return A new record of the user
+     */
+    public static UserRecord of(UserResponse.Data data) {
+        int submitted = clamp(data.getSubmitted());
+        int submissionCount = clamp(data.getSubmissionCount());
+        Instant updatedAt = data.getUpdatedAt();
+
+        return new UserRecord(data.getId() == null ? 0 : data.getId(), normalizeUsername(data.getUsername()),
+                submitted, submissionCount, approvalRank(submitted, submissionCount),
+                updatedAt == null ? NO_UPDATED_AT : updatedAt.toEpochMilli());
+    }
+
+    /**
+     * Trims the username, replacing a missing or blank username with NO_USERNAME.
+     * @param username The username as provided by the user data source
+     * @return The normalized username
+     */
+    public static String normalizeUsername(String username) {
+        String trimmed = (username == null ? "" : username.trim());
+        return (trimmed.isEmpty() ? NO_USERNAME : trimmed);
+    }
+
+    /**
+     * Clamps a count to zero.
+     * @param count The count as provided by the user data source
+     * @return The count, or zero if it is missing or negative
+     */
+    public static int clamp(Integer count) {
+        return (count == null || count < 0 ? 0 : count);
+    }
+
+    /*
+     * Calculates the approval rate in tenths of a percent, rounding the exact ratio half up with integer arithmetic.
+     */
+    static int approvalTenths(int submitted, int submissionCount) {
+        if (submitted == 0 || submissionCount > submitted) {
+            return NO_APPROVAL_RATE;
+        }
+
+        return (int) ((2000L * submissionCount + submitted) / (2L * submitted));
+    }
+
+    /*
+     * Calculates the approval rank from the rounded approval rate and the sign of its rounding error, with integer
+     * arithmetic.
+     */
+    static int approvalRank(int submitted, int submissionCount) {
+        int tenths = approvalTenths(submitted, submissionCount);
+        if (tenths == NO_APPROVAL_RATE) {
+            return NO_APPROVAL_RATE;
+        }
+
+        return 3 * tenths + Long.signum(1000L * submissionCount - (long) tenths * submitted) + 1;
+    }
+
+    /*
+     * Calculates the approval rank of a rate of exactly a whole percentage. Ranks above it are above the percentage,
+     * and ranks below it are below the percentage. Percentages beyond -1% and 101% rank the same as those, which no
+     * approval rate reaches either, so the rank never overflows.
+     */
+    static int rankOf(int percentage) {
+        return 30 * Math.max(-1, Math.min(percentage, 101)) + 1;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getSubmitted() {
+        return submitted;
+    }
+
+    public int getSubmissionCount() {
+        return submissionCount;
+    }
+
+    /**
+     * Finds the approval rate rounded to tenths of a percent, half up.
+     * @return The approval rate in tenths of a percent, or NO_APPROVAL_RATE
+     */
+    public int getApprovalTenths() {
+        return (approvalRank == NO_APPROVAL_RATE ? NO_APPROVAL_RATE : approvalRank / 3);
+    }
+
+    int getApprovalRank() {
+        return approvalRank;
+    }
+
+    long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Checks whether the user has a defined approval rate.
+     * @return True if the approval rate is defined
+     */
+    public boolean hasApprovalRate() {
+        return approvalRank != NO_APPROVAL_RATE;
+    }
+
+    /**
+     * Checks whether the user's exact approval rate is above the threshold.
+     * @param threshold The approval percentage filter
+     * @return True if the approval rate is defined and above the threshold
+     */
+    public boolean isAbove(int threshold) {
+        return hasApprovalRate() && submissionCount * 100L > (long) threshold * submitted;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserRecord record = (UserRecord) o;
+        return id == record.id && submitted == record.submitted && submissionCount == record.submissionCount
+                && updatedAt == record.updatedAt && username.equals(record.username);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, username, submitted, submissionCount, updatedAt);
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", UserRecord.class.getSimpleName() + "[", "]")
+                .add("id=" + id)
+                .add("username='" + username + "'")
+                .add("submitted=" + submitted)
+                .add("submissionCount=" + submissionCount)
+                .add("approvalTenths=" + getApprovalTenths())
+                .toString();
+    }
+}
@@ -1,10 +1,10 @@
 package com.kennethheckler.solutions.threshold.user.repository;
 
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import javax.validation.constraints.Max;
-import javax.validation.constraints.Min;
-import java.util.List;
+import java.time.Duration;
 
 /**
  * Encapsulates commands and queues against user data collections.
@@ -15,9 +15,41 @@ import java.util.List;
 public interface UserRepository {
 
     /**
-     * Queries the user repository for users whose approval percentage is above the given threshold value.
-     * @param threshold The approval percentage filter. Must be an integer value between 0 and 99, inclusive.
-     * @return Collection of response data wrapper objects returned from the repository's data source.
+     * Queries the user repository's data source for the users matching a query, giving up on any page that has not
+     * been read once the time budget runs out. Users who do not match are dropped as pages are read, but the top
+     * users and the order are left to the caller, such as to {@link UserSnapshot#of(UserPages, UserQuery)}.
+     * @param query The user query
+     * @param timeout The time budget of the query, or null to use the repository's default.
+     * @return The response data wrapper objects returned from each shard of the repository's data source, as soon as
+     * each shard has been read. Pages that cannot be read are left out and listed as failed, and pages that were not
+     * read within the time budget are left out and the shard's result marked as truncated.
      */
-    List<UserResponse> findByApprovedPercentGreaterThanThreshold(@Min(0) @Max(99) int threshold);
+    Flux<UserPages> find(UserQuery query, Duration timeout);
+
+    /**
+     * Finds the users matching a query, from whichever backend of the repository can answer it best. A snapshot that
+     * is recent enough is returned as it is, as its sorted index answers the query with binary searches. Otherwise the
+     * data source is crawled with any bounds of the query pushed down to the page decoder, and only the matching
+     * users, or only the top ones, are sorted.
+     * @param query The user query
+     * @param timeout The time budget of any crawl of the data source, or null to use the repository's default.
+     * @return A snapshot holding at least the users matching the query, to be read with
+     * {@link UserSnapshot#find(UserQuery, UserCursor)}. It records any pages that could not be read and whether the
+     * time budget ran out.
+     */
+    Mono<UserSnapshot> findUsers(UserQuery query, Duration timeout);
+
+    /**
+     * Finds the repository's in-memory snapshot of all users, sorted by approval percentage. Use
+     * {@link UserSnapshot#getAge()} to find out how stale the snapshot is. A snapshot restored from the snapshot file
+     * on startup is served, however stale, until the first refresh replaces it.
+     * @return The current snapshot, or empty if snapshots are disabled or no snapshot is recent enough to be used.
+     */
+    Mono<UserSnapshot> findSnapshot();
+
+    /**
+     * Watches the repository's in-memory snapshot of all users.
+     * @return The current snapshot, if there is one, followed by each new snapshot as soon as it is taken.
+     */
+    Flux<UserSnapshot> watchSnapshots();
 }
@@ -0,0 +1,138 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.boot.context.properties.ConstructorBinding;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * Type-safe configuration properties bean for the User repository. Spring will automatically bind any externalized
+ * properties that either start with the userrepository prefix or are provided under the userrepository section of the
+ * application's YAML file to the JavaBean properties in this file.
+ *
+ * @author Kenneth Heckler
+ * @see org.springframework.boot.context.properties.ConfigurationProperties
+ */
+@ConfigurationProperties(prefix = "userrepository")
+@ConfigurationPropertiesScan
+@Validated
+public class UserRepositoryConfiguration {
+
+    // Whether the repository keeps an in-memory snapshot of all users
+    private final boolean snapshotEnabled;
+
+    // How often the snapshot is refreshed from the user data source
+    private final Duration snapshotRefreshInterval;
+
+    // The oldest a snapshot may be and still be used to answer queries
+    private final Duration snapshotMaxAge;
+
+    // Whether snapshot refreshes only read pages and patch users that changed since the last refresh
+    private final boolean incrementalRefresh;
+
+    // Whether the usernames of the users held in memory are stored off-heap
+    private final boolean offHeapUsernames;
+
+    // The file the snapshot is persisted to and restored from on startup, or null to not persist the snapshot
+    private final String snapshotFile;
+
+    // The oldest a persisted snapshot may be and still be restored on startup and served until the first refresh
+    private final Duration snapshotFileMaxAge;
+
+    // The time budget of queries that read the data source directly when no timeout is given, or null for none
+    private final Duration queryTimeout;
+
+    // Where page decoding and blocking file I/O run
+    private final ExecutionMode execution;
+
+    /**
+     * All args constructor.
+     * @param snapshotEnabled Whether the repository keeps an in-memory snapshot of all users. Defaults to true
+     * @param snapshotRefreshInterval How often the snapshot is refreshed from the user data source. Defaults to 5 minutes
+     * @param snapshotMaxAge The oldest a snapshot may be and still be used to answer queries. Defaults to 15 minutes
+     * @param incrementalRefresh Whether snapshot refreshes only read pages and patch users that changed since the last
+     *                           refresh. Defaults to true
+     * @param offHeapUsernames Whether the usernames of the users held in memory are stored off-heap. Defaults to false
+     * @param snapshotFile The file the snapshot is persisted to and restored from on startup. Not persisted if not set
+     * @param snapshotFileMaxAge The oldest a persisted snapshot may be and still be restored on startup and served
+     *                           until the first refresh. Defaults to 1 day
+     * @param queryTimeout The time budget of queries that read the data source directly when no timeout is given. No
+     *                     time budget if not set
+     * @param execution Where page decoding and blocking file I/O run. Only that work moves to virtual threads;
+     *                  incoming requests are handled on the Netty event loop either way. Defaults to EVENT_LOOP
+     */
+    @ConstructorBinding
+    public UserRepositoryConfiguration(@DefaultValue("true") boolean snapshotEnabled,
+                                       @DefaultValue("5m") @NotNull Duration snapshotRefreshInterval,
+                                       @DefaultValue("15m") @NotNull Duration snapshotMaxAge,
+                                       @DefaultValue("true") boolean incrementalRefresh,
+                                       @DefaultValue("false") boolean offHeapUsernames,
+                                       String snapshotFile,
+                                       @DefaultValue("1d") @NotNull Duration snapshotFileMaxAge,
+                                       Duration queryTimeout,
+                                       @DefaultValue("event-loop") @NotNull ExecutionMode execution) {
+        this.snapshotEnabled = snapshotEnabled;
+        this.snapshotRefreshInterval = snapshotRefreshInterval;
+        this.snapshotMaxAge = snapshotMaxAge;
+        this.incrementalRefresh = incrementalRefresh;
+        this.offHeapUsernames = offHeapUsernames;
+        this.snapshotFile = snapshotFile;
+        this.snapshotFileMaxAge = snapshotFileMaxAge;
+        this.queryTimeout = queryTimeout;
+        this.execution = execution;
+    }
+
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    public Duration getSnapshotRefreshInterval() {
+        return snapshotRefreshInterval;
+    }
+
+    public Duration getSnapshotMaxAge() {
+        return snapshotMaxAge;
+    }
+
+    public boolean isIncrementalRefresh() {
+        return incrementalRefresh;
+    }
+
+    public boolean isOffHeapUsernames() {
+        return offHeapUsernames;
+    }
+
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public Duration getSnapshotFileMaxAge() {
+        return snapshotFileMaxAge;
+    }
+
+    public Duration getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public ExecutionMode getExecution() {
+        return execution;
+    }
+
+    /**
+     * Where the repository runs work that should not hold up the Netty event loop.
+     */
+    public enum ExecutionMode {
+
+        // Pages are decoded on the event loop that read them, and file I/O runs on Reactor's bounded elastic threads
+        EVENT_LOOP,
+
+        // Each page is decoded, and each file is read or written, on a virtual thread of its own. Requests are still
+        // handled, and pages still read, on the event loop. Needs Java 21 or later; on older runtimes the repository
+        // falls back to EVENT_LOOP.
+        VIRTUAL_THREADS
+    }
+}
@@ -1,10 +1,37 @@
 package com.kennethheckler.solutions.threshold.user.repository;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Repository;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
 
 /**
  * Implementation of the UserRepository.
@@ -15,41 +42,539 @@ import java.util.List;
 @Repository
 public class UserRepositoryImpl implements UserRepository {
 
+    private static final Logger LOG = LoggerFactory.getLogger(UserRepositoryImpl.class);
+
     // The injected User data source
     private final UserDataSource userDS;
 
+    // Injected, type-safe, externalized data source configurations
+    private final UserDataSourceConfiguration configuration;
+
+    // Injected, type-safe, externalized repository configurations
+    private final UserRepositoryConfiguration repoConfiguration;
+
+    // Runs the snapshot file I/O off the event loop, on a virtual thread if so configured
+    private final UserWorkers workers;
+
+    // Clock used to time stamp snapshots and measure query deadlines
+    private final Clock clock = Clock.systemUTC();
+
+    // The most recent snapshot of all users, or null until the first refresh completes
+    private final AtomicReference<UserSnapshot> snapshot = new AtomicReference<>();
+
+    // The users each shard's part of the current snapshot was taken from, patched in place by incremental refreshes
+    private final AtomicReferenceArray<UserDataSet> dataSets;
+
+    // The snapshot last taken of each shard's data set, merged into the snapshot of all users
+    private final AtomicReferenceArray<UserSnapshot> shardSnapshots;
+
+    // Publishes each new snapshot to watchers, replaying the latest one to new watchers
+    private final Sinks.Many<UserSnapshot> snapshots = Sinks.many().replay().latest();
+
+    // Coalesces concurrent crawls of a shard, keyed by the shard and the filter the pages are decoded with
+    private final SingleFlight<CrawlKey, UserPages> crawls = new SingleFlight<>();
+
+    // The progress of each shared crawl in flight, for callers that stop waiting for it
+    private final Map<CrawlKey, CrawlProgress> crawlProgress = new ConcurrentHashMap<>();
+
+    // The file the snapshot is persisted to, or null if it is not persisted
+    private final UserSnapshotFile snapshotFile;
+
+    // The last snapshot persisted to the snapshot file
+    private volatile UserSnapshot persisted;
+
+    // The snapshot restored from the snapshot file, served as stale until the first refresh replaces it
+    private volatile UserSnapshot restored;
+
+    // The injected registry that crawl and snapshot metrics are recorded in
+    private final MeterRegistry meterRegistry;
+
+    // The number of users dropped by query filters from the pages read for each query
+    private final Counter filteredUsers;
+
+    // Time taken to sort the users of each shard crawled for a query
+    private final Timer sortTimer;
+
+    // The number of pages left out of crawls because they could not be read
+    private final Counter failedPages;
+
+    // The number of crawls that ran out of time before every page was read
+    private final Counter truncatedCrawls;
+
+    // The background task that periodically refreshes the snapshot
+    private Disposable snapshotRefresher;
+
     /**
      * Required args constructor.
      * @param userDS The injected User data source
+     * @param configuration Injected, type-safe, externalized data source configurations
+     * @param repoConfiguration Injected, type-safe, externalized repository configurations
+     * @param meterRegistry The injected registry that crawl and snapshot metrics are recorded in
+     * @param workers The injected workers that the snapshot file is written on
      */
-    public UserRepositoryImpl(UserDataSource userDS) {
+    public UserRepositoryImpl(UserDataSource userDS, UserDataSourceConfiguration configuration,
+                              UserRepositoryConfiguration repoConfiguration, MeterRegistry meterRegistry,
+                              UserWorkers workers) {
         this.userDS = userDS;
+        this.workers = workers;
+        this.configuration = configuration;
+        this.repoConfiguration = repoConfiguration;
+        this.meterRegistry = meterRegistry;
+        this.filteredUsers = Counter.builder("user.repository.filtered.users")
+                .description("Users dropped by query filters from the pages read for each query")
+                .register(meterRegistry);
+        this.sortTimer = Timer.builder("user.repository.sort")
+                .description("Time taken to sort the users of each shard crawled for a query")
+                .register(meterRegistry);
+        this.failedPages = Counter.builder("user.repository.failed.pages")
+                .description("Pages left out of crawls because they could not be read from the user data source")
+                .register(meterRegistry);
+        this.truncatedCrawls = Counter.builder("user.repository.truncated.crawls")
+                .description("Crawls that ran out of time before every page was read")
+                .register(meterRegistry);
+
+        this.dataSets = new AtomicReferenceArray<>(userDS.getShardCount());
+        this.shardSnapshots = new AtomicReferenceArray<>(userDS.getShardCount());
+
+        String file = repoConfiguration.getSnapshotFile();
+        this.snapshotFile = (file == null || file.trim().isEmpty() ? null : new UserSnapshotFile(Paths.get(file)));
+    }
+
+    /**
+     * Starts refreshing the snapshot in the background, if enabled. The first refresh begins immediately. If the
+     * snapshot is persisted, the persisted snapshot is restored first so users can be served while the first refresh
+     * catches up.
+     */
+    @PostConstruct
+    void startSnapshotRefresher() {
+        if (repoConfiguration.isSnapshotEnabled()) {
+            restoreSnapshot();
+
+            snapshotRefresher = Flux.interval(Duration.ZERO, repoConfiguration.getSnapshotRefreshInterval())
+                    .onBackpressureDrop()
+                    .concatMap(tick -> refreshSnapshot()
+                            .onErrorResume(e -> {
+                                LOG.warn("Unable to refresh the user snapshot", e);
+                                return Mono.empty();
+                            }))
+                    .subscribe();
+        }
+    }
+
+    /**
+     * Stops refreshing the snapshot.
+     */
+    @PreDestroy
+    void stopSnapshotRefresher() {
+        if (snapshotRefresher != null) {
+            snapshotRefresher.dispose();
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public List<UserResponse> findByApprovedPercentGreaterThanThreshold(int threshold) {
-        int page = 1;
-        int totalPages = 1;
-        List<UserResponse> responseSet = new ArrayList<>();
-
-        // Have to make several calls to the data source to get all the pages of users
-        // Obviously, you would not want to do this for data sources that have 100s of pages
-        // TODO: Split this into concurrent calls
+    public Flux<UserPages> find(UserQuery query, Duration timeout) {
+        // The top users and the order do not change which users are read. Queries with bounds are filtered as pages
+        // are decoded, and share crawls only with queries that keep the same users. Queries on a threshold alone are
+        // the common case, spread over a hundred thresholds, so they trade the allocation saved by filtering while
+        // decoding for sharing: they decode every user, so that one crawl and one read of each page serve every
+        // threshold at once, and only then keep the users above their own threshold.
+        boolean filtered = (query.getMin() != null || query.getMax() != null || query.getMinSubmitted() > 0);
+        UserFilter filter = UserFilter.of(query);
+
+        Duration budget = (timeout != null ? timeout : repoConfiguration.getQueryTimeout());
+        int shards = userDS.getShardCount();
+
+        // Every shard is crawled at the same time, so more shards add parallelism rather than latency
+        return Flux.defer(() -> {
+            Instant deadline = (budget == null ? null : clock.instant().plus(budget));
+
+            return Flux.range(0, shards).flatMap(shard -> (filtered
+                    ? sharedCrawl(shard, filter, deadline)
+                    : sharedCrawl(shard, UserFilter.ALL, deadline).map(pages -> pages.filter(filter)))
+                    .doOnNext(this::countFiltered), shards);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<UserSnapshot> findUsers(UserQuery query, Duration timeout) {
+        return findSnapshot()
+                .switchIfEmpty(Mono.defer(() -> find(query, timeout)
+                        .map(pages -> {
+                            long start = System.nanoTime();
+                            UserSnapshot sorted = UserSnapshot.of(pages, query);
+                            sortTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                            return sorted;
+                        })
+                        .collectList()
+                        .map(UserSnapshot::merge)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<UserSnapshot> findSnapshot() {
+        return Mono.defer(() -> {
+            UserSnapshot current = snapshot.get();
+            boolean stale = (current != null && current == restored);
+            Duration maxAge = (stale
+                    ? repoConfiguration.getSnapshotFileMaxAge()
+                    : repoConfiguration.getSnapshotMaxAge());
+            boolean found = (current != null && current.getAge().compareTo(maxAge) <= 0);
+
+            snapshotLookups(!found ? "miss" : stale ? "stale" : "hit").increment();
+            return (found ? Mono.just(current) : Mono.<UserSnapshot>empty());
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<UserSnapshot> watchSnapshots() {
+        return snapshots.asFlux();
+    }
+
+    /*
+     * Counts the users a query's filter dropped from the pages read for it, from the number of users the data source
+     * reports each page to hold. Pages that do not report their size are not counted.
+     */
+    private void countFiltered(UserPages pages) {
+        for (UserResponse page : pages.getPages()) {
+            if (page.getPage() != null && page.getPerPage() != null && page.getTotal() != null) {
+                int users = Math.min(page.getPerPage(), page.getTotal() - (page.getPage() - 1) * page.getPerPage());
+                filteredUsers.increment(Math.max(0, users - page.getData().size()));
+            }
+        }
+    }
+
+    private DistributionSummary crawlPages(String crawl) {
+        return DistributionSummary.builder("user.repository.crawl.pages")
+                .description("Pages read from the user data source by each crawl")
+                .tag("crawl", crawl)
+                .register(meterRegistry);
+    }
+
+    private Counter snapshotLookups(String result) {
+        return Counter.builder("user.repository.snapshot.lookups")
+                .description("Lookups of a snapshot that is current enough to answer queries")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /*
+     * Restores the snapshot persisted to the snapshot file, if there is one and it is recent enough. The restored
+     * snapshot keeps the time it was last verified, so its age stays truthful. It is served as stale, for as long as it
+     * is within the snapshot file's maximum age rather than the snapshot's, until the first refresh replaces it.
+     */
+    private void restoreSnapshot() {
+        if (snapshotFile == null || !Files.exists(snapshotFile.getPath())) {
+            return;
+        }
+
         try {
-            while (page <= totalPages) {
-                UserResponse response = userDS.read(page++);
-                totalPages = response.getTotalPages();
+            UserSnapshot restored = snapshotFile.read(clock);
+            if (restored.getAge().compareTo(repoConfiguration.getSnapshotFileMaxAge()) > 0) {
+                LOG.info("Ignoring user snapshot file {}, last verified at {}", snapshotFile.getPath(),
+                        restored.getVerifiedAt());
+                return;
+            }
+
+            this.restored = restored;
+            persisted = restored;
+            snapshot.set(restored);
+            snapshots.tryEmitNext(restored);
+            LOG.info("Restored {} users from user snapshot file {}, last verified at {}, to serve as stale until the "
+                    + "first refresh", restored.size(), snapshotFile.getPath(), restored.getVerifiedAt());
+        } catch (IOException e) {
+            LOG.warn("Unable to restore the user snapshot from {}", snapshotFile.getPath(), e);
+        }
+    }
+
+    /*
+     * Brings the snapshot up to date with the data source, refreshing every shard concurrently. A shard that cannot be
+     * refreshed keeps the users last read from it and has its first page marked as failed. The refresh only fails if
+     * no shard can be refreshed.
+     */
+    Mono<UserSnapshot> refreshSnapshot() {
+        int shards = dataSets.length();
+        return Mono.defer(() -> {
+            Map<Integer, Throwable> failures = new ConcurrentSkipListMap<>();
+
+            return Flux.range(0, shards)
+                    .flatMap(shard -> refreshShard(shard)
+                            .onErrorResume(e -> {
+                                failures.put(shard, e);
+                                return Mono.empty();
+                            }), shards)
+                    .then(Mono.defer(() -> {
+                        if (failures.size() == shards) {
+                            return Mono.error(failures.get(0));
+                        }
+
+                        failures.forEach((shard, e) -> {
+                            LOG.warn("Unable to refresh shard {} of the user snapshot", shard, e);
+                            dataSets.compareAndSet(shard, null, new UserDataSet(repoConfiguration.isOffHeapUsernames()));
+                            dataSets.get(shard).markFailed(1);
+                        });
+                        return Mono.fromSupplier(this::publish);
+                    }));
+        }).flatMap(this::persist);
+    }
+
+    /*
+     * Brings the data set of a shard up to date. Incremental refreshes are used once there is a data set to patch that
+     * was read at the current page size; otherwise every page is read into a new data set, as a new page size
+     * renumbers every page.
+     */
+    private Mono<Void> refreshShard(int shard) {
+        UserDataSet current = dataSets.get(shard);
+        int perPage = userDS.getPageSize(shard);
+
+        if (current == null || !repoConfiguration.isIncrementalRefresh() || current.getPerPage() != perPage) {
+            UserDataSet fresh = new UserDataSet(repoConfiguration.isOffHeapUsernames(), perPage);
+            return readAllPages(shard, perPage, UserFilter.ALL, fresh::markFailed)
+                    .doOnNext(fresh::apply)
+                    .count()
+                    .doOnNext(pages -> {
+                        crawlPages("full").record(pages);
+                        dataSets.set(shard, fresh);
+                    })
+                    .then();
+        }
+
+        return readModifiedPages(shard, current)
+                .doOnNext(current::apply)
+                .count()
+                .doOnNext(pages -> crawlPages("incremental").record(pages))
+                .then();
+    }
+
+    /*
+     * Writes a new snapshot to the snapshot file, off the event loop and on a virtual thread if so configured. Failing
+     * to persist a snapshot does not fail the refresh.
+     */
+    private Mono<UserSnapshot> persist(UserSnapshot taken) {
+        if (snapshotFile == null || taken == persisted) {
+            return Mono.just(taken);
+        }
 
-                response.getData().removeIf(data -> threshold >= data.getApprovalPercentage());
-                responseSet.add(response);
+        return Mono.fromCallable(() -> {
+                    snapshotFile.write(taken);
+                    persisted = taken;
+                    return taken;
+                })
+                .subscribeOn(workers.blocking())
+                .onErrorResume(e -> {
+                    LOG.warn("Unable to persist the user snapshot to {}", snapshotFile.getPath(), e);
+                    return Mono.just(taken);
+                });
+    }
+
+    /*
+     * Takes and publishes a new snapshot if any shard's data set was modified. Otherwise the current snapshot is still
+     * valid and is only marked as verified. Only the data sets that were modified are snapshotted again, and the
+     * snapshots of every shard are then merged. Returns the current snapshot.
+     */
+    private UserSnapshot publish() {
+        boolean modified = false;
+        for (int shard = 0; shard < dataSets.length(); shard++) {
+            UserDataSet users = dataSets.get(shard);
+            users.prune();
+            modified |= users.isModified();
+        }
+
+        UserSnapshot current = snapshot.get();
+        if (current != null && !modified) {
+            current.markVerified();
+            return current;
+        }
+
+        List<UserSnapshot> shards = new ArrayList<>(dataSets.length());
+        for (int shard = 0; shard < dataSets.length(); shard++) {
+            UserDataSet users = dataSets.get(shard);
+            if (users.isModified() || shardSnapshots.get(shard) == null) {
+                shardSnapshots.set(shard, users.toSnapshot(clock));
             }
+            shards.add(shardSnapshots.get(shard));
+        }
+
+        UserSnapshot taken = UserSnapshot.merge(shards, clock);
+        snapshot.set(taken);
+        snapshots.tryEmitNext(taken);
+        return taken;
+    }
+
+    /*
+     * Reads only the pages of a shard that the data source reports as modified since they were last read. Page order
+     * does not matter when patching, so pages are emitted as soon as they arrive. If the first page is not modified,
+     * the last known total number of pages is used. Pages that are not modified or cannot be read are marked as such
+     * in the data set.
+     */
+    private Flux<UserResponse> readModifiedPages(int shard, UserDataSet users) {
+        return readIfModified(shard, users, 1)
+                .flatMapMany(first -> {
+                    int totalPages = (first.getTotalPages() == null ? 1 : first.getTotalPages());
+                    return Flux.concat(Mono.just(first), readModifiedPages(shard, users, 2, totalPages));
+                })
+                .switchIfEmpty(Flux.defer(() -> readModifiedPages(shard, users, 2, users.getTotalPages())));
+    }
+
+    private Flux<UserResponse> readModifiedPages(int shard, UserDataSet users, int fromPage, int totalPages) {
+        return Flux.range(fromPage, Math.max(0, totalPages - fromPage + 1))
+                .flatMap(page -> skipFailedPage(shard, page, readIfModified(shard, users, page), users::markFailed),
+                        configuration.getParallelism());
+    }
+
+    private Mono<UserResponse> readIfModified(int shard, UserDataSet users, int page) {
+        return userDS.readIfModified(shard, page, users.getPerPage())
+                .doOnSuccess(modified -> {
+                    if (modified == null) {
+                        users.markRead(page);
+                    }
+                });
+    }
+
+    /*
+     * Shares one crawl of a shard between concurrent callers with equal filters, whatever their deadlines. Each caller
+     * only stops waiting at its own deadline, with the pages read by then and a truncated result, and the crawl goes on
+     * for the other callers. It is only cancelled once every caller has stopped waiting.
+     */
+    private Mono<UserPages> sharedCrawl(int shard, UserFilter filter, Instant deadline) {
+        CrawlKey key = new CrawlKey(shard, filter);
+        Mono<UserPages> shared = crawls.execute(key, () -> {
+            CrawlProgress progress = new CrawlProgress();
+            crawlProgress.put(key, progress);
+            return crawl(shard, filter, progress)
+                    .doFinally(signal -> crawlProgress.remove(key, progress));
+        });
+        if (deadline == null) {
+            return shared;
+        }
+
+        return Mono.defer(() -> {
+            Duration remaining = Duration.between(clock.instant(), deadline);
+            return shared.timeout(remaining.isNegative() ? Duration.ZERO : remaining, Mono.fromSupplier(() -> {
+                truncatedCrawls.increment();
+                CrawlProgress progress = crawlProgress.get(key);
+                return (progress == null
+                        ? new UserPages(Collections.emptyList(), Collections.emptyList(), true)
+                        : progress.toPages(true));
+            }));
+        });
+    }
+
+    /*
+     * Reads every page of a shard for a query, collecting the pages that failed as it goes. If the first page cannot be
+     * read, none of the shard's users can be, and the first page is reported as failed.
+     */
+    private Mono<UserPages> crawl(int shard, UserFilter filter, CrawlProgress progress) {
+        int perPage = userDS.getPageSize(shard);
+
+        return readAllPages(shard, perPage, filter, progress::fail)
+                .doOnNext(progress::add)
+                .then()
+                .onErrorResume(DataSourceException.class, e -> {
+                    LOG.warn("Unable to read page 1 of shard {} of the user data source", shard, e);
+                    failedPages.increment();
+                    progress.fail(1);
+                    return Mono.empty();
+                })
+                .then(Mono.fromSupplier(() -> {
+                    UserPages pages = progress.toPages(false);
+                    crawlPages("threshold").record(pages.getPages().size());
+                    return pages;
+                }));
+    }
+
+    /*
+     * Every page is read at the same page size. The first page of a shard is read on its own to learn how many pages
+     * there are. The remaining pages are then read concurrently, up to the configured parallelism, and reassembled in
+     * page order. Only users who pass the filter are decoded. Any later page that cannot be read is left out and
+     * passed to the failed page consumer, but the crawl fails if the first page cannot be read.
+     */
+    private Flux<UserResponse> readAllPages(int shard, int perPage, UserFilter filter, IntConsumer failedPage) {
+        return userDS.read(shard, 1, perPage, filter)
+                .flatMapMany(first -> {
+                    int totalPages = (first.getTotalPages() == null ? 1 : first.getTotalPages());
+                    return Flux.concat(Mono.just(first),
+                            Flux.range(2, Math.max(0, totalPages - 1))
+                                    .flatMapSequential(page -> skipFailedPage(shard, page,
+                                            userDS.read(shard, page, perPage, filter), failedPage),
+                                            configuration.getParallelism()));
+                });
+    }
+
+    /*
+     * Replaces the failure of a page read, which the data source has already retried, with an empty page.
+     */
+    private Mono<UserResponse> skipFailedPage(int shard, int page, Mono<UserResponse> read, IntConsumer failedPage) {
+        return read.onErrorResume(DataSourceException.class, e -> {
+            LOG.warn("Unable to read page {} of shard {} of the user data source", page, shard, e);
+            failedPages.increment();
+            failedPage.accept(page);
+            return Mono.empty();
+        });
+    }
+
+    /*
+     * Identifies identical crawls: every page of the same shard decoded with equal filters.
+     */
+    private static final class CrawlKey {
+
+        private final int shard;
+
+        private final UserFilter filter;
+
+        private CrawlKey(int shard, UserFilter filter) {
+            this.shard = shard;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CrawlKey key = (CrawlKey) o;
+            return shard == key.shard && filter.equals(key.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * shard + filter.hashCode();
+        }
+    }
+
+    /*
+     * The pages a crawl has read so far, in page order, and the pages it could not read.
+     */
+    private static final class CrawlProgress {
+
+        // The pages read so far, in page order
+        private final List<UserResponse> pages = new ArrayList<>();
+
+        // The numbers of the pages that could not be read
+        private final Set<Integer> failed = new ConcurrentSkipListSet<>();
+
+        synchronized void add(UserResponse page) {
+            pages.add(page);
+        }
+
+        void fail(int page) {
+            failed.add(page);
+        }
 
-            return responseSet;
-        } catch (DataSourceException e) {
-            return Collections.emptyList();
+        /*
+         * Copies the pages read so far, truncated if the caller stopped waiting for the crawl.
+         */
+        synchronized UserPages toPages(boolean truncated) {
+            return new UserPages(new ArrayList<>(pages), failed, truncated);
         }
     }
 }
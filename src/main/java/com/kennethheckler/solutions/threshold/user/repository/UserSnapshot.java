@@ -0,0 +1,548 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Point-in-time copy of every user read from the user data source. Users are kept in a columnar store, sorted from
+ * lowest to highest approval rate and then by user ID, so a threshold query is a binary search over primitive columns
+ * followed by a view of the users above it. How many users are above each whole threshold, and at each whole
+ * approval percentage, is worked out once when the snapshot is taken, so counting users never looks at them.
+ * <p>Users without a defined approval rate, such as users with no submissions, can never be above a threshold and are
+ * left out of the snapshot.
+ * <p>A snapshot is incomplete when some pages of the data source could not be read, in which case the users on those
+ * pages may be missing or out of date, or when it was taken from a query that ran out of time before every page was
+ * read, in which case it is also truncated. The failed page numbers of a snapshot merged from several shards of the
+ * data source are those of every shard.
+ * <p>The users in a snapshot never change. The only mutable state is the time the users were last verified to still
+ * be current, which is what the age of the snapshot is measured from.
+ *
+ * @author Kenneth Heckler
+ */
+public final class UserSnapshot {
+
+    // The number of distinct approval ranks, three for each tenth of a percent from 0.0% to 100.0%, less the rank
+    // above 100.0% that no approval rate reaches
+    static final int APPROVAL_RANKS = 3 * 1001 - 1;
+
+    // The number of whole approval percentages, 0% to 100%
+    public static final int APPROVAL_PERCENTAGES = 101;
+
+    // Orders users the same way as a snapshot, from lowest to highest approval rate and then by user ID
+    private static final Comparator<UserRecord> APPROVAL_ORDER =
+            Comparator.comparingInt(UserRecord::getApprovalRank).thenComparingInt(UserRecord::getId);
+
+    // Users sorted from lowest to highest approval rate, then by user ID
+    private final UserColumns columns;
+
+    // Read-only view of the users, reading each user back into a record as it is accessed
+    private final List<UserRecord> users;
+
+    // The numbers of the pages that could not be read, in ascending order
+    private final List<Integer> failedPages;
+
+    // Whether the users were read by a query that ran out of time before every page was read
+    private final boolean truncated;
+
+    // The index of the first user at or above each whole approval percentage, plus the number of users
+    private final int[] percentageStarts;
+
+    // The index of the first user above each whole approval percentage
+    private final int[] thresholdStarts;
+
+    // The date and time the snapshot was taken
+    private final Instant createdAt;
+
+    // Clock used to calculate the age of the snapshot
+    private final Clock clock;
+
+    // The date and time the users were last verified to match the user data source
+    private volatile Instant verifiedAt;
+
+    private UserSnapshot(UserColumns columns, Collection<Integer> failedPages, boolean truncated, Instant createdAt,
+                         Clock clock) {
+        this.columns = columns;
+        this.users = new Users(0, columns.size());
+        this.failedPages = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(failedPages)));
+        this.truncated = truncated;
+        this.percentageStarts = new int[APPROVAL_PERCENTAGES + 1];
+        this.thresholdStarts = new int[APPROVAL_PERCENTAGES];
+        for (int percentage = 0; percentage < APPROVAL_PERCENTAGES; percentage++) {
+            percentageStarts[percentage] = indexAbove(UserRecord.rankOf(percentage) - 1);
+            thresholdStarts[percentage] = indexAbove(UserRecord.rankOf(percentage));
+        }
+        percentageStarts[APPROVAL_PERCENTAGES] = columns.size();
+        this.createdAt = createdAt;
+        this.verifiedAt = createdAt;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes a new snapshot of the given users using the system clock.
+     * @param users Every user read from the user data source, in any order
+     * @return A new snapshot of the users
+     */
+    public static UserSnapshot of(Collection<UserRecord> users) {
+        return of(users, Clock.systemUTC());
+    }
+
+    /**
+     * Takes a new snapshot of the given users.
+     * @param users Every user read from the user data source, in any order
+     * @param clock Clock used to time stamp the snapshot and calculate its age
+     * @return A new snapshot of the users
+     */
+    public static UserSnapshot of(Collection<UserRecord> users, Clock clock) {
+        return of(users, Collections.emptyList(), clock);
+    }
+
+    /**
+     * Takes a new snapshot of the users on the pages read by a query, using the system clock. The snapshot keeps track
+     * of the pages that failed and of whether the query was truncated.
+     * @param pages The pages read by the query
+     * @return A new snapshot of the users
+     */
+    public static UserSnapshot of(UserPages pages) {
+        return of(pages, null);
+    }
+
+    /**
+     * Takes a new snapshot of the users on the pages read by a query that match a user query, using the system clock.
+     * When the user query only keeps its top users, they are picked with a heap bounded to that many users as the
+     * pages are read, so only they are kept and sorted rather than every matching user.
+     * @param pages The pages read by the query
+     * @param query The user query, or null to keep every user
+     * @return A new snapshot of the matching users
+     */
+    public static UserSnapshot of(UserPages pages, UserQuery query) {
+        Integer top = (query == null ? null : query.getTop());
+
+        // Min-heap of the highest users so far, whose head is the first to make way for a higher user
+        PriorityQueue<UserRecord> highest = (top == null ? null : new PriorityQueue<>(top + 1, APPROVAL_ORDER));
+
+        UserColumns columns = new UserColumns(false);
+        for (UserResponse page : pages.getPages()) {
+            for (UserResponse.Data data : page.getData()) {
+                UserRecord user = UserRecord.of(data);
+                if (query != null && !query.matches(user)) {
+                    continue;
+                }
+
+                if (highest == null) {
+                    columns.add(user);
+                } else if (highest.size() < top) {
+                    highest.add(user);
+                } else if (APPROVAL_ORDER.compare(user, highest.peek()) > 0) {
+                    highest.poll();
+                    highest.add(user);
+                }
+            }
+        }
+        if (highest != null) {
+            for (UserRecord user : highest) {
+                columns.add(user);
+            }
+        }
+
+        Clock clock = Clock.systemUTC();
+        return new UserSnapshot(columns.sortByApprovalRate(), pages.getFailedPages(), pages.isTruncated(),
+                clock.instant(), clock);
+    }
+
+    /**
+     * Takes a new snapshot of the users that could be read.
+     * @param users The users read from the user data source, in any order
+     * @param failedPages The numbers of the pages that could not be read, in any order
+     * @param clock Clock used to time stamp the snapshot and calculate its age
+     * @return A new snapshot of the users
+     */
+    static UserSnapshot of(Collection<UserRecord> users, Collection<Integer> failedPages, Clock clock) {
+        UserColumns columns = new UserColumns(false);
+        for (UserRecord user : users) {
+            columns.add(user);
+        }
+
+        return of(columns, failedPages, clock);
+    }
+
+    /**
+     * Takes a new snapshot of the users in a columnar store. The users are copied, so the store may go on changing.
+     * @param columns The users read from the user data source, in any order
+     * @param failedPages The numbers of the pages that could not be read, in any order
+     * @param clock Clock used to time stamp the snapshot and calculate its age
+     * @return A new snapshot of the users
+     */
+    static UserSnapshot of(UserColumns columns, Collection<Integer> failedPages, Clock clock) {
+        return new UserSnapshot(columns.sortByApprovalRate(), failedPages, false, clock.instant(), clock);
+    }
+
+    /**
+     * Merges snapshots of the shards of the data source into a single snapshot, using the system clock.
+     * @param shards The snapshot of each shard, at least one
+     * @return A new snapshot of every shard's users
+     * @see UserColumns#merge(List)
+     */
+    public static UserSnapshot merge(List<UserSnapshot> shards) {
+        return merge(shards, Clock.systemUTC());
+    }
+
+    /**
+     * Merges snapshots of the shards of the data source into a single snapshot. Each shard's users are already sorted,
+     * so they are merged rather than sorted again, and a user found in more than one shard is only kept once. The
+     * merged snapshot is incomplete if any shard is, and truncated if any shard is.
+     * @param shards The snapshot of each shard, at least one
+     * @param clock Clock used to time stamp the snapshot and calculate its age
+     * @return A new snapshot of every shard's users, or the only shard's snapshot if there is just one
+     * @see UserColumns#merge(List)
+     */
+    static UserSnapshot merge(List<UserSnapshot> shards, Clock clock) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+
+        List<UserColumns> columns = new ArrayList<>(shards.size());
+        Set<Integer> failedPages = new TreeSet<>();
+        boolean truncated = false;
+        for (UserSnapshot shard : shards) {
+            columns.add(shard.columns);
+            failedPages.addAll(shard.failedPages);
+            truncated |= shard.truncated;
+        }
+
+        return new UserSnapshot(UserColumns.merge(columns), failedPages, truncated, clock.instant(), clock);
+    }
+
+    /**
+     * Restores a snapshot that was previously taken, such as one read back from a snapshot file.
+     * @param columns The users of the snapshot, already sorted by approval rate and then by user ID
+     * @param failedPages The numbers of the pages that could not be read, in any order
+     * @param createdAt The date and time the snapshot was taken
+     * @param verifiedAt The date and time the users were last verified to match the user data source
+     * @param clock Clock used to calculate the age of the snapshot
+     * @return The restored snapshot
+     */
+    static UserSnapshot restore(UserColumns columns, Collection<Integer> failedPages, Instant createdAt,
+                                Instant verifiedAt, Clock clock) {
+        UserSnapshot restored = new UserSnapshot(columns, failedPages, false, createdAt, clock);
+        restored.verifiedAt = verifiedAt;
+        return restored;
+    }
+
+    /**
+     * Finds the users whose approval rate is above the given threshold value.
+     * @param threshold The approval percentage filter
+     * @return Read-only view of the matching users, ordered from lowest to highest approval rate
+     */
+    public List<UserRecord> findByApprovedPercentGreaterThanThreshold(int threshold) {
+        return new Users(columns.size() - countAbove(threshold), columns.size());
+    }
+
+    /**
+     * Counts the users whose approval rate is above the given threshold value. The counts are worked out when the
+     * snapshot is taken, so no user is looked at.
+     * @param threshold The approval percentage filter
+     * @return The number of matching users
+     */
+    public int countAbove(int threshold) {
+        if (threshold < 0) {
+            return columns.size();
+        }
+        if (threshold >= APPROVAL_PERCENTAGES) {
+            return 0;
+        }
+
+        return columns.size() - thresholdStarts[threshold];
+    }
+
+    /**
+     * Counts the users at each whole approval percentage, where the users at n% are those whose approval rate is at
+     * least n% and below (n + 1)%.
+     * @return A new array of the number of users at each approval percentage, from 0% to 100%
+     */
+    public int[] getHistogram() {
+        int[] histogram = new int[APPROVAL_PERCENTAGES];
+        for (int percentage = 0; percentage < APPROVAL_PERCENTAGES; percentage++) {
+            histogram[percentage] = percentageStarts[percentage + 1] - percentageStarts[percentage];
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Finds the users that match a query and come after the cursor in the query's order. The approval rate bounds are
+     * binary searches, and the top users are the last ones within them, so only a minimum number of submitted
+     * articles requires the users to be scanned. The top users are picked before the cursor is applied, so a cursor
+     * pages through them. Users in descending order are a reversed view, so they cost no more than ascending ones.
+     * @param query The user query
+     * @param after The position to start after, or null to start from the first user in the query's order
+     * @return Read-only view of the matching users, in the query's order
+     */
+    public List<UserRecord> find(UserQuery query, UserCursor after) {
+        int from = indexAbove(query.getLowestRank() - 1);
+        int to = Math.max(from, indexAbove(query.getHighestRank()));
+        boolean descending = (query.getOrder() == UserQuery.Order.DESCENDING);
+
+        List<UserRecord> found;
+        if (query.getMinSubmitted() > 0) {
+            int[] rows = rowsWithSubmitted(from, to, query.getMinSubmitted(), query.getTop());
+            int start = 0;
+            int end = rows.length;
+            if (after != null && descending) {
+                end = insertionPoint(rows, indexOf(after, true));
+            } else if (after != null) {
+                start = insertionPoint(rows, indexOf(after, false));
+            }
+
+            found = new Rows(rows, start, end);
+        } else {
+            if (query.getTop() != null) {
+                from = Math.max(from, to - query.getTop());
+            }
+            if (after != null && descending) {
+                to = Math.max(from, Math.min(to, indexOf(after, true)));
+            } else if (after != null) {
+                from = Math.min(to, Math.max(from, indexOf(after, false)));
+            }
+
+            found = new Users(from, to);
+        }
+
+        return (descending ? new Reversed(found) : found);
+    }
+
+    /*
+     * Finds the rows from one row up to another of the users who submitted enough articles, in ascending order. When
+     * only the top users are kept, the rows are scanned from the highest approval rate down until there are enough.
+     */
+    private int[] rowsWithSubmitted(int from, int to, int minSubmitted, Integer top) {
+        int[] rows = new int[top == null ? to - from : Math.min(top, to - from)];
+        int count = 0;
+
+        if (top == null) {
+            for (int row = from; row < to; row++) {
+                if (columns.getSubmitted(row) >= minSubmitted) {
+                    rows[count++] = row;
+                }
+            }
+
+            return Arrays.copyOf(rows, count);
+        }
+
+        for (int row = to - 1; row >= from && count < rows.length; row--) {
+            if (columns.getSubmitted(row) >= minSubmitted) {
+                rows[count++] = row;
+            }
+        }
+
+        int[] ascending = new int[count];
+        for (int i = 0; i < count; i++) {
+            ascending[i] = rows[count - 1 - i];
+        }
+        return ascending;
+    }
+
+    /*
+     * Finds where a row is, or would be, in the ascending rows.
+     */
+    private static int insertionPoint(int[] rows, int row) {
+        int found = Arrays.binarySearch(rows, row);
+        return (found >= 0 ? found : -found - 1);
+    }
+
+    /*
+     * Binary search for the index of the first user that comes after the cursor, or that is at or after the cursor if
+     * inclusive.
+     */
+    private int indexOf(UserCursor cursor, boolean inclusive) {
+        int low = 0;
+        int high = columns.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int order = Integer.compare(columns.getApprovalRank(mid), cursor.getApprovalRank());
+            if (order > 0 || (order == 0 && (columns.getId(mid) > cursor.getId()
+                    || (inclusive && columns.getId(mid) == cursor.getId())))) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return low;
+    }
+
+    /*
+     * Binary search for the index of the first user whose approval rank is greater than the given rank.
+     */
+    private int indexAbove(int rank) {
+        int low = 0;
+        int high = columns.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (columns.getApprovalRank(mid) > rank) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return low;
+    }
+
+    UserColumns getColumns() {
+        return columns;
+    }
+
+    public List<UserRecord> getUsers() {
+        return users;
+    }
+
+    public List<Integer> getFailedPages() {
+        return failedPages;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Whether every page of the user data source was read.
+     * @return True if no page failed and the snapshot is not truncated
+     */
+    public boolean isComplete() {
+        return failedPages.isEmpty() && !truncated;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getVerifiedAt() {
+        return verifiedAt;
+    }
+
+    /**
+     * Records that the users in the snapshot were verified to still match the user data source.
+     */
+    void markVerified() {
+        verifiedAt = clock.instant();
+    }
+
+    /**
+     * Calculates how long ago the users in the snapshot were last verified to match the user data source.
+     * @return The age of the snapshot
+     */
+    public Duration getAge() {
+        return Duration.between(verifiedAt, clock.instant());
+    }
+
+    public int size() {
+        return columns.size();
+    }
+
+    /*
+     * Read-only view of a range of the users in the snapshot.
+     */
+    private final class Users extends AbstractList<UserRecord> implements RandomAccess {
+
+        // The first row in the view
+        private final int from;
+
+        // The number of rows in the view
+        private final int size;
+
+        Users(int from, int to) {
+            this.from = from;
+            this.size = to - from;
+        }
+
+        @Override
+        public UserRecord get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+
+            return columns.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /*
+     * Read-only view of chosen rows of the users in the snapshot.
+     */
+    private final class Rows extends AbstractList<UserRecord> implements RandomAccess {
+
+        // The rows in the view, in ascending order
+        private final int[] rows;
+
+        // The index of the first row in the view
+        private final int from;
+
+        // The index after the last row in the view
+        private final int to;
+
+        Rows(int[] rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public UserRecord get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+
+            return columns.get(rows[from + index]);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    /*
+     * Read-only view of another view of the users in the snapshot, in reverse order.
+     */
+    private static final class Reversed extends AbstractList<UserRecord> implements RandomAccess {
+
+        // The view in ascending order
+        private final List<UserRecord> users;
+
+        Reversed(List<UserRecord> users) {
+            this.users = users;
+        }
+
+        @Override
+        public UserRecord get(int index) {
+            if (index < 0 || index >= users.size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + users.size());
+            }
+
+            return users.get(users.size() - 1 - index);
+        }
+
+        @Override
+        public int size() {
+            return users.size();
+        }
+    }
+}
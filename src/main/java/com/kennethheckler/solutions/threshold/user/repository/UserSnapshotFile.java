@@ -0,0 +1,164 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file that a UserSnapshot is persisted to, so that a restarted application can serve users straight away
+ * instead of waiting for a full read of the user data source. The file holds a header, the pages that failed, the
+ * snapshot's columnar store and a CRC-32 of everything before it:
+ * <pre>
+ *     int    magic number, "USNP"
+ *     int    format version
+ *     long   created at, in milliseconds since the epoch
+ *     long   verified at, in milliseconds since the epoch
+ *     int    number of failed pages
+ *     int[]  the failed page numbers
+ *     ...    the users, as written by UserColumns
+ *     int    CRC-32 of the preceding bytes
+ * </pre>
+ * Files are read through a MappedByteBuffer, and the usernames stay in the mapped file rather than being copied onto
+ * the heap.
+ *
+ * @author Kenneth Heckler
+ * @see UserColumns
+ */
+final class UserSnapshotFile {
+
+    // Identifies a snapshot file
+    private static final int MAGIC = 0x55534E50;
+
+    // The version of the file format. Files written in any other format are not read.
+    static final int VERSION = 3;
+
+    // The number of bytes before the failed pages
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+    // The path of the file
+    private final Path path;
+
+    /**
+     * Required args constructor.
+     * @param path The path of the file
+     */
+    UserSnapshotFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Writes a snapshot to the file, replacing any snapshot already in it. The snapshot is written to a temporary file
+     * that is then moved over the file, so readers never see a partially written snapshot.
+     * @param snapshot The snapshot
+     * @throws IOException If the file cannot be written
+     */
+    void write(UserSnapshot snapshot) throws IOException {
+        UserColumns columns = snapshot.getColumns();
+        List<Integer> failedPages = snapshot.getFailedPages();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (failedPages.size() + 1) * Integer.BYTES
+                + columns.byteSize() + Integer.BYTES);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(snapshot.getCreatedAt().toEpochMilli());
+        buffer.putLong(snapshot.getVerifiedAt().toEpochMilli());
+        buffer.putInt(failedPages.size());
+        for (int page : failedPages) {
+            buffer.putInt(page);
+        }
+        columns.writeTo(buffer);
+        buffer.putInt(checksum(buffer, buffer.position()));
+        buffer.flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot in the file.
+     * @param clock Clock used to calculate the age of the snapshot
+     * @return The snapshot
+     * @throws IOException If the file cannot be read, or is not a valid snapshot file of the current version
+     */
+    UserSnapshot read(Clock clock) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES + 2 * Integer.BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid user snapshot file size: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int checksumAt = buffer.limit() - Integer.BYTES;
+        if (buffer.getInt(checksumAt) != checksum(buffer, checksumAt)) {
+            throw new IOException("User snapshot file checksum mismatch: " + path);
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a user snapshot file: " + path);
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported user snapshot file version " + version + ": " + path);
+        }
+
+        Instant createdAt = Instant.ofEpochMilli(buffer.getLong());
+        Instant verifiedAt = Instant.ofEpochMilli(buffer.getLong());
+
+        int failedPageCount = buffer.getInt();
+        if (failedPageCount < 0 || failedPageCount > (checksumAt - buffer.position()) / Integer.BYTES) {
+            throw new IOException("Invalid user snapshot file failed page count: " + path);
+        }
+        List<Integer> failedPages = new ArrayList<>(failedPageCount);
+        for (int i = 0; i < failedPageCount; i++) {
+            failedPages.add(buffer.getInt());
+        }
+
+        UserColumns columns = UserColumns.readFrom(buffer);
+        if (buffer.position() != checksumAt) {
+            throw new IOException("Invalid user snapshot file length: " + path);
+        }
+
+        return UserSnapshot.restore(columns, failedPages, createdAt, verifiedAt, clock);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /*
+     * Calculates the CRC-32 of the bytes in the buffer before the given position.
+     */
+    private static int checksum(ByteBuffer buffer, int length) {
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(0);
+        bytes.limit(length);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,100 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the work of the user repository that should not hold up the Netty event loop, as selected by the configured
+ * execution mode. In the event loop mode, pages are decoded where they were read and blocking file I/O runs on
+ * Reactor's bounded elastic threads. In the virtual threads mode, both run on a virtual thread per task, so page reads
+ * can fan out as far as the connection pool allows without tuning a thread pool to match.
+ * <p>Only this work is moved. Incoming requests are still handled on the Netty event loop, and page reads still go
+ * through the non-blocking WebClient, in either mode.
+ * <p>The application is compiled for Java 8, so virtual threads are created through reflection. On a runtime without
+ * them, the event loop mode is used instead.
+ *
+ * @author Kenneth Heckler
+ * @see UserRepositoryConfiguration.ExecutionMode
+ */
+@Component
+class UserWorkers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UserWorkers.class);
+
+    // Scheduler that runs each task on a virtual thread of its own, or null in the event loop mode
+    private final Scheduler virtualThreads;
+
+    /**
+     * Required args constructor.
+     * @param repoConfiguration Injected, type-safe, externalized repository configurations
+     */
+    UserWorkers(UserRepositoryConfiguration repoConfiguration) {
+        UserRepositoryConfiguration.ExecutionMode execution = repoConfiguration.getExecution();
+        ExecutorService executor = (execution == UserRepositoryConfiguration.ExecutionMode.VIRTUAL_THREADS
+                ? newVirtualThreadExecutor() : null);
+        if (execution == UserRepositoryConfiguration.ExecutionMode.VIRTUAL_THREADS && executor == null) {
+            LOG.warn("Virtual threads need Java 21 or later; running on Java {} in the event loop execution mode instead",
+                    System.getProperty("java.version"));
+        }
+
+        this.virtualThreads = (executor == null ? null : Schedulers.fromExecutorService(executor, "userWorkers"));
+        LOG.info("Decoding user pages and writing the user snapshot file {}",
+                (isVirtual() ? "on virtual threads" : "in the event loop execution mode"));
+    }
+
+    /**
+     * Moves the rest of a CPU-bound pipeline, such as the decoding of a page that was just read, off the event loop.
+     * @param source The source whose signals the work is done on
+     * @param <T> The type of the signals
+     * @return The source, whose signals are delivered on a virtual thread in the virtual threads mode, or the source
+     * itself in the event loop mode
+     */
+    <T> Mono<T> offload(Mono<T> source) {
+        return (virtualThreads == null ? source : source.publishOn(virtualThreads));
+    }
+
+    /**
+     * Finds the scheduler that blocking I/O, such as writing the snapshot file, is subscribed on.
+     * @return The virtual thread scheduler in the virtual threads mode, otherwise Reactor's bounded elastic scheduler
+     */
+    Scheduler blocking() {
+        return (virtualThreads == null ? Schedulers.boundedElastic() : virtualThreads);
+    }
+
+    /**
+     * Tells whether the work runs on virtual threads.
+     * @return True in the virtual threads mode on a runtime that has them, otherwise false
+     */
+    boolean isVirtual() {
+        return virtualThreads != null;
+    }
+
+    /**
+     * Shuts down the virtual thread scheduler, if any.
+     */
+    @PreDestroy
+    void dispose() {
+        if (virtualThreads != null) {
+            virtualThreads.dispose();
+        }
+    }
+
+    /*
+     * Calls Executors.newVirtualThreadPerTaskExecutor(), which only exists on Java 21 and later.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
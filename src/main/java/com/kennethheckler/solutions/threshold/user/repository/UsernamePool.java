@@ -0,0 +1,215 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Deduplicated pool of usernames, stored back to back as UTF-8 bytes in a single buffer. Each distinct username is
+ * stored once and referred to by its index in the pool, so a user's username costs an int rather than a String. The
+ * buffer can be allocated off-heap, in which case the usernames do not count against the Java heap at all.
+ * <p>Instances are not thread safe while usernames are being added, but may be read concurrently once they are done.
+ * Pools can be written to and read back from a buffer, such as a memory-mapped snapshot file.
+ *
+ * @author Kenneth Heckler
+ */
+final class UsernamePool {
+
+    // Marks an unused slot in the hash table
+    private static final int EMPTY = -1;
+
+    // Whether the buffer is allocated off-heap
+    private final boolean direct;
+
+    // The UTF-8 bytes of every username, back to back
+    private ByteBuffer bytes;
+
+    // The offset of each username in the buffer, plus the offset just past the last username
+    private int[] offsets = new int[17];
+
+    // The number of usernames in the pool
+    private int size;
+
+    // Open addressing hash table of username indexes, used to find duplicates
+    private int[] table = newTable(16);
+
+    /**
+     * Required args constructor.
+     * @param direct Whether the buffer is allocated off-heap
+     */
+    UsernamePool(boolean direct) {
+        this.direct = direct;
+        this.bytes = allocate(256);
+    }
+
+    private UsernamePool(ByteBuffer bytes, int[] offsets) {
+        this.direct = bytes.isDirect();
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.size = offsets.length - 1;
+        this.table = null;
+    }
+
+    /**
+     * Reads a pool written by {@link #writeTo(ByteBuffer)}. The usernames are not copied out of the buffer, so a pool
+     * read from a memory-mapped file keeps its usernames on disk. No usernames may be added to the pool.
+     * @param buffer The buffer, positioned at the start of the pool
+     * @return The pool
+     */
+    static UsernamePool readFrom(ByteBuffer buffer) {
+        int[] offsets = new int[buffer.getInt() + 1];
+        int byteCount = buffer.getInt();
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(buffer.position() + offsets.length * Integer.BYTES);
+
+        ByteBuffer bytes = buffer.slice();
+        bytes.limit(byteCount);
+        buffer.position(buffer.position() + byteCount);
+
+        return new UsernamePool(bytes, offsets);
+    }
+
+    /**
+     * Writes the pool to a buffer.
+     * @param buffer The buffer, which must have at least {@link #byteSize()} bytes remaining
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size);
+        buffer.putInt(offsets[size]);
+        buffer.asIntBuffer().put(offsets, 0, size + 1);
+        buffer.position(buffer.position() + (size + 1) * Integer.BYTES);
+
+        ByteBuffer used = bytes.duplicate();
+        used.position(0);
+        used.limit(offsets[size]);
+        buffer.put(used);
+    }
+
+    /**
+     * Calculates the number of bytes written by {@link #writeTo(ByteBuffer)}.
+     * @return The number of bytes
+     */
+    int byteSize() {
+        return 2 * Integer.BYTES + (size + 1) * Integer.BYTES + offsets[size];
+    }
+
+    /**
+     * Adds a username to the pool unless it is already there.
+     * @param username The username
+     * @return The index of the username in the pool
+     */
+    int add(String username) {
+        byte[] encoded = username.getBytes(StandardCharsets.UTF_8);
+        int mask = table.length - 1;
+        int slot = Arrays.hashCode(encoded) & mask;
+
+        while (table[slot] != EMPTY) {
+            if (matches(table[slot], encoded)) {
+                return table[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int end = offsets[size];
+        ensureCapacity(end + encoded.length);
+        for (int i = 0; i < encoded.length; i++) {
+            bytes.put(end + i, encoded[i]);
+        }
+
+        if (size + 1 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size + 1] = end + encoded.length;
+        table[slot] = size;
+
+        if (++size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+
+        return size - 1;
+    }
+
+    /**
+     * Decodes a username in the pool.
+     * @param index The index of the username in the pool
+     * @return The username
+     */
+    String get(int index) {
+        byte[] encoded = new byte[offsets[index + 1] - offsets[index]];
+        ByteBuffer view = bytes.duplicate();
+        view.position(offsets[index]);
+        view.get(encoded);
+
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Releases the memory only needed to add usernames. No more usernames may be added afterwards.
+     */
+    void freeze() {
+        offsets = Arrays.copyOf(offsets, size + 1);
+        table = null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    private boolean matches(int index, byte[] encoded) {
+        int start = offsets[index];
+        if (offsets[index + 1] - start != encoded.length) {
+            return false;
+        }
+
+        for (int i = 0; i < encoded.length; i++) {
+            if (bytes.get(start + i) != encoded[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.capacity()) {
+            ByteBuffer grown = allocate(Math.max(capacity, bytes.capacity() * 2));
+            ByteBuffer used = bytes.duplicate();
+            used.position(0);
+            used.limit(offsets[size]);
+            grown.put(used);
+            bytes = grown;
+        }
+    }
+
+    private void rehash(int capacity) {
+        table = newTable(capacity);
+        int mask = capacity - 1;
+
+        for (int index = 0; index < size; index++) {
+            byte[] encoded = new byte[offsets[index + 1] - offsets[index]];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = bytes.get(offsets[index] + i);
+            }
+
+            int slot = Arrays.hashCode(encoded) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index;
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return (direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity));
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+}
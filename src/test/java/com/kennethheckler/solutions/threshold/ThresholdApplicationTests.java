@@ -1,10 +1,9 @@
 package com.kennethheckler.solutions.threshold;
 
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
 import org.junit.jupiter.api.Test;
-import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
-class ThresholdApplicationTests {
+class ThresholdApplicationTests extends SimulatedUpstreamTest {
 
 	@Test
 	void contextLoads() {
@@ -0,0 +1,174 @@
+package com.kennethheckler.solutions.threshold.simulator;
+
+import com.kennethheckler.solutions.threshold.ThresholdApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Load driver for the successful_user endpoint. Starts an UpstreamSimulator and the application pointed at it, then
+ * keeps a fixed number of requests in flight for a while and reports the throughput and the latency percentiles. Run
+ * it with the loadTest Gradle task, passing any of the settings as project properties, such as
+ * {@code ./gradlew loadTest -Ploadtest.concurrency=64 -Ploadtest.duration=60s}:
+ * <ul>
+ *     <li>loadtest.users - the number of users served by the simulator, 10000 by default</li>
+ *     <li>loadtest.perPage - the number of users on each page, 10 by default</li>
+ *     <li>loadtest.maxPerPage - the largest page size the simulator serves and the application probes for, the same
+ *     as loadtest.perPage by default</li>
+ *     <li>loadtest.latencyMedian and loadtest.latencyP99 - the page latency distribution, 20ms and 200ms by
+ *     default</li>
+ *     <li>loadtest.errorRate - the fraction of page requests that fail, 0.01 by default</li>
+ *     <li>loadtest.slowPageRate and loadtest.slowPageDelay - the fraction of page requests that are slow and by how
+ *     much, 0.005 and 2s by default</li>
+ *     <li>loadtest.concurrency - the number of requests in flight, 32 by default</li>
+ *     <li>loadtest.warmup and loadtest.duration - how long to run before and while measuring, 10s and 30s by
+ *     default</li>
+ *     <li>loadtest.query - the query string of each request, thresholdperc=50 by default</li>
+ *     <li>loadtest.snapshot - whether the application serves users from its snapshot, true by default</li>
+ * </ul>
+ *
+ * @author Kenneth Heckler
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 32);
+        Duration warmup = duration("loadtest.warmup", "10s");
+        Duration duration = duration("loadtest.duration", "30s");
+        String query = System.getProperty("loadtest.query", "thresholdperc=50");
+
+        int perPage = Integer.getInteger("loadtest.perPage", 10);
+        int maxPerPage = Integer.getInteger("loadtest.maxPerPage", perPage);
+
+        try (UpstreamSimulator simulator = new UpstreamSimulator(Integer.getInteger("loadtest.users", 10000),
+                perPage, 42)
+                .maxPerPage(maxPerPage)
+                .latency(duration("loadtest.latencyMedian", "20ms"), duration("loadtest.latencyP99", "200ms"))
+                .errorRate(Double.parseDouble(System.getProperty("loadtest.errorRate", "0.01")))
+                .slowPages(Double.parseDouble(System.getProperty("loadtest.slowPageRate", "0.005")),
+                        duration("loadtest.slowPageDelay", "2s"))
+                .start();
+             ConfigurableApplicationContext application = startApplication(simulator, perPage, maxPerPage)) {
+
+            String uri = "http://localhost:" + application.getEnvironment().getProperty("local.server.port")
+                    + "/successful_user?" + query;
+            ConnectionProvider connections = ConnectionProvider.builder("loadtest")
+                    .maxConnections(concurrency)
+                    .pendingAcquireMaxCount(-1)
+                    .build();
+            WebClient client = WebClient.builder()
+                    .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                    .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(-1))
+                    .build();
+
+            System.out.printf("Warming up for %s against %s%n", warmup, uri);
+            drive(client, uri, concurrency, warmup);
+
+            System.out.printf("Measuring for %s at a concurrency of %d%n", duration, concurrency);
+            long upstreamRequests = simulator.getRequestCount();
+            Result result = drive(client, uri, concurrency, duration);
+            result.report(duration, simulator.getRequestCount() - upstreamRequests);
+
+            connections.disposeLater().block();
+        }
+    }
+
+    private static ConfigurableApplicationContext startApplication(UpstreamSimulator simulator, int perPage,
+                                                                   int maxPerPage) {
+        return new SpringApplicationBuilder(ThresholdApplication.class)
+                .properties("server.port=0",
+                        "logging.level.root=warn",
+                        "logging.file.name=",
+                        "userdatasource.scheme=http",
+                        "userdatasource.host=localhost",
+                        "userdatasource.port=" + simulator.getPort(),
+                        "userdatasource.path=" + UpstreamSimulator.PATH,
+                        "userdatasource.per-page=" + perPage,
+                        "userdatasource.max-per-page=" + maxPerPage,
+                        "userrepository.snapshot-enabled=" + System.getProperty("loadtest.snapshot", "true"),
+                        "userrepository.snapshot-file=")
+                .run();
+    }
+
+    /*
+     * Keeps the given number of requests in flight until the time is up, recording the latency of each.
+     */
+    private static Result drive(WebClient client, String uri, int concurrency, Duration duration) {
+        long end = System.nanoTime() + duration.toNanos();
+        Result result = new Result();
+
+        Flux.range(0, concurrency)
+                .flatMap(worker -> Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return client.get().uri(uri)
+                            .exchangeToMono(response -> response.releaseBody()
+                                    .thenReturn(response.statusCode().is2xxSuccessful()))
+                            .onErrorReturn(false)
+                            .doOnNext(success -> result.record(System.nanoTime() - start, success));
+                }).repeat(() -> System.nanoTime() < end), concurrency)
+                .blockLast();
+
+        return result;
+    }
+
+    private static Duration duration(String property, String defaultValue) {
+        return DurationStyle.detectAndParse(System.getProperty(property, defaultValue));
+    }
+
+    /*
+     * The latencies of the requests made while measuring.
+     */
+    private static final class Result {
+
+        // The latency of each request, in nanoseconds
+        private long[] latencies = new long[1 << 16];
+
+        // The number of requests made
+        private int count;
+
+        // The number of requests that failed or were not answered with a success status
+        private long errors;
+
+        synchronized void record(long nanos, boolean success) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            if (!success) {
+                errors++;
+            }
+        }
+
+        synchronized void report(Duration duration, long upstreamRequests) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+
+            System.out.printf("Requests:   %d (%d errors), %d upstream page requests%n", count, errors,
+                    upstreamRequests);
+            System.out.printf("Throughput: %.1f requests/s%n", count * 1000.0 / duration.toMillis());
+            System.out.printf("Latency:    p50 %s, p99 %s, p99.9 %s, max %s%n", percentile(sorted, 50),
+                    percentile(sorted, 99), percentile(sorted, 99.9), percentile(sorted, 100));
+        }
+
+        private static String percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return "-";
+            }
+
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return String.format("%.2fms", sorted[Math.max(0, index)] / 1e6);
+        }
+    }
+}
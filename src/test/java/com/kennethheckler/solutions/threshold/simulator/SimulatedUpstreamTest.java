@@ -0,0 +1,48 @@
+package com.kennethheckler.solutions.threshold.simulator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Base class of the tests that run the application against an UpstreamSimulator rather than the real host. Every
+ * subclass shares a single simulator, started once for the whole test run, and the same properties, so they also
+ * share a single application context. A subclass that needs other properties adds them with a DynamicPropertySource
+ * method of its own, and gets a context of its own.
+ * <p>Snapshots are disabled and not persisted, so every request reads the simulator. Pages hold 10 users, up to 50
+ * users can be asked for, and page bodies are limited to 4KB, so a page of 50 users is too large to read. Failed page
+ * reads are retried twice without much of a backoff. Any latency or failures a test sets on the simulator are reset
+ * after it.
+ *
+ * @author Kenneth Heckler
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public abstract class SimulatedUpstreamTest {
+
+    // The upstream shared by every test. Cached application contexts outlive any single test class, so it is only
+    // stopped when the test run ends
+    protected static final UpstreamSimulator SIMULATOR = new UpstreamSimulator(95, 10, 7).maxPerPage(50).start();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(SIMULATOR::close));
+    }
+
+    @DynamicPropertySource
+    static void upstream(DynamicPropertyRegistry registry) {
+        registry.add("userdatasource.scheme", () -> "http");
+        registry.add("userdatasource.host", () -> "localhost");
+        registry.add("userdatasource.port", SIMULATOR::getPort);
+        registry.add("userdatasource.path", () -> UpstreamSimulator.PATH);
+        registry.add("userdatasource.per-page", () -> 10);
+        registry.add("userdatasource.max-page-size", () -> "4KB");
+        registry.add("userdatasource.retry-backoff", () -> "10ms");
+        registry.add("userrepository.snapshot-enabled", () -> false);
+        registry.add("userrepository.snapshot-file", () -> "");
+    }
+
+    @AfterEach
+    void resetUpstream() {
+        SIMULATOR.reset();
+    }
+}
@@ -0,0 +1,425 @@
+package com.kennethheckler.solutions.threshold.simulator;
+
+import com.kennethheckler.solutions.threshold.user.repository.UserRecord;
+import com.kennethheckler.solutions.threshold.user.repository.UserResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the article_users API of the user data source, so the application can be tested and load
+ * tested without calling the real host. The users are generated from a seed, so every run serves the same users. Each
+ * page is answered after a latency drawn from a log-normal distribution, and pages can be made to fail or to be much
+ * slower than the rest at random, chosen pages can be made to always fail, or the next few requests for a page can be
+ * made to fail or to be slow. Latency and failures can be changed while the API is served, and reset, so a simulator
+ * can be shared by tests that each set up their own failures.
+ * <p>Pages are served with an ETag and answered with 304 Not Modified when it matches, the same as the real host.
+ * Users can be updated while the API is served, which changes the ETag of every page.
+ * Pages past the last one are served without users. Any page size up to the largest one served can be asked for with
+ * the per_page query parameter, and larger ones are capped to it.
+ *
+ * @author Kenneth Heckler
+ */
+public final class UpstreamSimulator implements AutoCloseable {
+
+    // The path the API is served at
+    public static final String PATH = "api/article_users";
+
+    // The page size query parameter the API accepts
+    public static final String PER_PAGE_PARAM = "per_page";
+
+    // The z-score of the 99th percentile of a normal distribution
+    private static final double Z_99 = 2.326;
+
+    // The delays of a page without slow requests set
+    private static final Queue<Duration> EMPTY_DELAYS = new ConcurrentLinkedQueue<>();
+
+    // The users generated from the seed, in page order
+    private final List<UserResponse.Data> generatedUsers;
+
+    // The users served, in page order, which are the generated users unless some were updated
+    private volatile List<UserResponse.Data> users;
+
+    // The version of the users served, part of every page's ETag so that updated pages are served again
+    private volatile int version;
+
+    // The JSON body of each page at each page size served, then the body of a page past the last one. Pages are
+    // rendered the first time a size is asked for, so serving a page costs no more than the upstream would
+    private final Map<Integer, List<byte[]>> pagesBySize = new ConcurrentHashMap<>();
+
+    // The number of users on each page when no page size is asked for
+    private final int perPage;
+
+    // The largest page size served, to which larger sizes asked for are capped
+    private int maxPerPage;
+
+    // The median latency of a page, in nanoseconds
+    private volatile long medianNanos;
+
+    // The spread of the log-normal latency distribution
+    private volatile double sigma;
+
+    // The fraction of page requests that fail
+    private volatile double errorRate;
+
+    // The pages that always fail
+    private final Set<Integer> failingPages = ConcurrentHashMap.newKeySet();
+
+    // The status that failed page requests are answered with
+    private volatile HttpResponseStatus failureStatus = HttpResponseStatus.SERVICE_UNAVAILABLE;
+
+    // The fraction of page requests delayed by the slow page delay on top of their latency
+    private volatile double slowPageRate;
+
+    // The extra delay of slow pages
+    private volatile Duration slowPageDelay = Duration.ZERO;
+
+    // The number of next requests for each page that fail
+    private final Map<Integer, AtomicInteger> failuresLeft = new ConcurrentHashMap<>();
+
+    // The extra delays of the next requests for each page, in the order the requests are received
+    private final Map<Integer, Queue<Duration>> slowRequests = new ConcurrentHashMap<>();
+
+    // The number of page requests received
+    private final AtomicLong requests = new AtomicLong();
+
+    // The running server, or null before it is started
+    private DisposableServer server;
+
+    /**
+     * Required args constructor. Pages are served without latency, errors or slow pages until they are configured,
+     * and no larger page size than the default one is served.
+     * @param userCount The number of users served
+     * @param perPage The number of users on each page when no page size is asked for
+     * @param seed The seed the users are generated from
+     */
+    public UpstreamSimulator(int userCount, int perPage, long seed) {
+        this.perPage = perPage;
+        this.maxPerPage = perPage;
+        this.generatedUsers = Collections.unmodifiableList(generateUsers(userCount, seed));
+        this.users = generatedUsers;
+        pagesBySize.put(perPage, renderPages(perPage));
+    }
+
+    /**
+     * Sets the largest page size served.
+     * @param maxPerPage The largest number of users on a page, to which larger page sizes asked for are capped
+     * @return This simulator
+     */
+    public UpstreamSimulator maxPerPage(int maxPerPage) {
+        this.maxPerPage = maxPerPage;
+        return this;
+    }
+
+    /**
+     * Sets the latency of each page.
+     * @param median The median latency
+     * @param p99 The 99th percentile latency, at least the median
+     * @return This simulator
+     */
+    public UpstreamSimulator latency(Duration median, Duration p99) {
+        this.medianNanos = median.toNanos();
+        this.sigma = (median.isZero() ? 0 : Math.log((double) p99.toNanos() / median.toNanos()) / Z_99);
+        return this;
+    }
+
+    /**
+     * Sets the fraction of page requests that fail.
+     * @param errorRate The fraction of page requests that fail, from 0 to 1
+     * @return This simulator
+     */
+    public UpstreamSimulator errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Sets pages that always fail, whatever the page size.
+     * @param pages The numbers of the pages that fail
+     * @return This simulator
+     */
+    public UpstreamSimulator failingPages(Integer... pages) {
+        this.failingPages.addAll(Arrays.asList(pages));
+        return this;
+    }
+
+    /**
+     * Makes the next requests for a page fail, whatever the page size, after which the page is served again.
+     * @param page The number of the page
+     * @param times The number of requests that fail
+     * @return This simulator
+     */
+    public UpstreamSimulator failNext(int page, int times) {
+        failuresLeft.put(page, new AtomicInteger(times));
+        return this;
+    }
+
+    /**
+     * Sets the status that failed page requests are answered with, 503 Service Unavailable unless set.
+     * @param status The status code, which need not be one HTTP defines, such as 522 from some CDNs
+     * @return This simulator
+     */
+    public UpstreamSimulator failureStatus(int status) {
+        this.failureStatus = HttpResponseStatus.valueOf(status);
+        return this;
+    }
+
+    /**
+     * Sets the fraction of page requests that are much slower than the rest.
+     * @param rate The fraction of page requests delayed, from 0 to 1
+     * @param delay The extra delay of those page requests
+     * @return This simulator
+     */
+    public UpstreamSimulator slowPages(double rate, Duration delay) {
+        this.slowPageRate = rate;
+        this.slowPageDelay = delay;
+        return this;
+    }
+
+    /**
+     * Delays the next requests for a page, whatever the page size, after which the page is served at its usual latency
+     * again. A delayed request still fails if it is one of the next requests set to fail.
+     * @param page The number of the page
+     * @param delays The extra delay of each of the next requests, in the order they are received
+     * @return This simulator
+     */
+    public UpstreamSimulator slowNext(int page, Duration... delays) {
+        slowRequests.put(page, new ConcurrentLinkedQueue<>(Arrays.asList(delays)));
+        return this;
+    }
+
+    /**
+     * Changes the article counts of a user, so the pages are served with new ETags.
+     * @param id The ID of the user
+     * @param submitted The number of articles the user submitted
+     * @param submissionCount The number of submitted articles that are approved
+     * @return This simulator
+     */
+    public synchronized UpstreamSimulator updateUser(int id, int submitted, int submissionCount) {
+        List<UserResponse.Data> updated = new ArrayList<>(users);
+        UserResponse.Data user = updated.get(id - 1);
+        updated.set(id - 1, new UserResponse.Data(id, user.getUsername(), user.getAbout(), submitted,
+                user.getUpdatedAt(), submissionCount, user.getCommentCount(), user.getCreatedAt()));
+
+        serve(Collections.unmodifiableList(updated));
+        return this;
+    }
+
+    private void serve(List<UserResponse.Data> users) {
+        this.users = users;
+        version++;
+        pagesBySize.clear();
+    }
+
+    /**
+     * Serves the generated users, and every page without latency, errors or slow pages, again.
+     * @return This simulator
+     */
+    public synchronized UpstreamSimulator reset() {
+        if (users != generatedUsers) {
+            serve(generatedUsers);
+        }
+        latency(Duration.ZERO, Duration.ZERO);
+        errorRate(0);
+        failingPages.clear();
+        failuresLeft.clear();
+        slowRequests.clear();
+        failureStatus(HttpResponseStatus.SERVICE_UNAVAILABLE.code());
+        slowPages(0, Duration.ZERO);
+        return this;
+    }
+
+    /**
+     * Starts serving the API on a free local port.
+     * @return This simulator
+     */
+    public UpstreamSimulator start() {
+        server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .compress(true)
+                .route(routes -> routes.get("/" + PATH, this::servePage))
+                .bindNow();
+        return this;
+    }
+
+    /**
+     * Stops serving the API.
+     */
+    @Override
+    public void close() {
+        if (server != null) {
+            server.disposeNow();
+        }
+    }
+
+    public int getPort() {
+        return server.port();
+    }
+
+    public List<UserResponse.Data> getUsers() {
+        return users;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Counts the users the application should find above a threshold.
+     * @param threshold The approval percentage filter
+     * @return The number of users served whose approval rate is above the threshold
+     */
+    public int countAbove(int threshold) {
+        int count = 0;
+        for (UserResponse.Data data : users) {
+            if (UserRecord.of(data).isAbove(threshold)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private Mono<Void> servePage(HttpServerRequest request, HttpServerResponse response) {
+        requests.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        QueryStringDecoder query = new QueryStringDecoder(request.uri());
+        int page = intParameter(query, "page", 1);
+        int size = Math.max(1, Math.min(maxPerPage, intParameter(query, PER_PAGE_PARAM, perPage)));
+        String eTag = "\"page-" + page + "-of-" + size + "-v" + version + "\"";
+        Duration delay = Duration.ofNanos(latencyNanos(random));
+        if (random.nextDouble() < slowPageRate) {
+            delay = delay.plus(slowPageDelay);
+        }
+        Duration slowRequestDelay = slowRequests.getOrDefault(page, EMPTY_DELAYS).poll();
+        if (slowRequestDelay != null) {
+            delay = delay.plus(slowRequestDelay);
+        }
+
+        if (take(failuresLeft, page) || failingPages.contains(page) || random.nextDouble() < errorRate) {
+            return Mono.delay(delay).then(response.status(failureStatus).send().then());
+        }
+        if (eTag.equals(request.requestHeaders().get(HttpHeaderNames.IF_NONE_MATCH))) {
+            return Mono.delay(delay).then(response.status(HttpResponseStatus.NOT_MODIFIED)
+                    .header(HttpHeaderNames.ETAG, eTag)
+                    .send()
+                    .then());
+        }
+
+        List<byte[]> pages = pagesBySize.computeIfAbsent(size, this::renderPages);
+        byte[] body = pages.get(page >= 1 && page < pages.size() ? page - 1 : pages.size() - 1);
+        return Mono.delay(delay).then(response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                .header(HttpHeaderNames.ETAG, eTag)
+                .sendByteArray(Mono.just(body))
+                .then());
+    }
+
+    /*
+     * Counts down one of the next requests set for a page, returning whether there was one left.
+     */
+    private static boolean take(Map<Integer, AtomicInteger> requestsLeft, int page) {
+        AtomicInteger left = requestsLeft.get(page);
+        return (left != null && left.getAndUpdate(count -> Math.max(0, count - 1)) > 0);
+    }
+
+    /*
+     * Draws a latency from a log-normal distribution with the configured median and 99th percentile.
+     */
+    private long latencyNanos(Random random) {
+        return (medianNanos == 0 ? 0 : (long) (medianNanos * Math.exp(sigma * random.nextGaussian())));
+    }
+
+    private static int intParameter(QueryStringDecoder query, String name, int defaultValue) {
+        List<String> values = query.parameters().get(name);
+        try {
+            return (values == null || values.isEmpty() ? defaultValue : Integer.parseInt(values.get(0)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /*
+     * Users submit between 0 and 200 articles, and have any number of them approved. Some users have no username.
+     */
+    private static List<UserResponse.Data> generateUsers(int userCount, long seed) {
+        Random random = new Random(seed);
+        Instant updatedAt = Instant.parse("2022-11-01T00:00:00Z");
+
+        List<UserResponse.Data> users = new ArrayList<>(userCount);
+        for (int id = 1; id <= userCount; id++) {
+            int submitted = random.nextInt(201);
+            int approved = (submitted == 0 ? 0 : random.nextInt(submitted + 1));
+            String username = (random.nextInt(50) == 0 ? null : "user" + id);
+
+            users.add(new UserResponse.Data(id, username, null, submitted,
+                    updatedAt.minusSeconds(random.nextInt(86400 * 365)), approved, random.nextInt(100),
+                    updatedAt.getEpochSecond()));
+        }
+
+        return users;
+    }
+
+    /*
+     * Renders every page at a page size, followed by a page past the last one.
+     */
+    private List<byte[]> renderPages(int size) {
+        int totalPages = Math.max(1, (users.size() + size - 1) / size);
+        List<byte[]> pages = new ArrayList<>(totalPages + 1);
+        for (int page = 1; page <= totalPages + 1; page++) {
+            int from = Math.min(users.size(), (page - 1) * size);
+            pages.add(render(page, size, users.subList(from, Math.min(users.size(), from + size)), totalPages));
+        }
+
+        return Collections.unmodifiableList(pages);
+    }
+
+    private byte[] render(int page, int size, List<UserResponse.Data> data, int totalPages) {
+        StringBuilder json = new StringBuilder(64 + data.size() * 160)
+                .append("{\"page\":").append(page)
+                .append(",\"per_page\":").append(size)
+                .append(",\"total\":").append(users.size())
+                .append(",\"total_pages\":").append(totalPages)
+                .append(",\"data\":[");
+
+        for (int i = 0; i < data.size(); i++) {
+            UserResponse.Data user = data.get(i);
+            json.append(i == 0 ? "{" : ",{")
+                    .append("\"id\":").append(user.getId())
+                    .append(",\"username\":").append(user.getUsername() == null ? "null"
+                            : "\"" + user.getUsername() + "\"")
+                    .append(",\"about\":\"\"")
+                    .append(",\"submitted\":").append(user.getSubmitted())
+                    .append(",\"updated_at\":\"").append(user.getUpdatedAt()).append('"')
+                    .append(",\"submission_count\":").append(user.getSubmissionCount())
+                    .append(",\"comment_count\":").append(user.getCommentCount())
+                    .append(",\"created_at\":").append(user.getCreatedAt())
+                    .append('}');
+        }
+
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,45 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.json.JsonTest;
+import org.springframework.boot.test.json.JacksonTester;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@JsonTest
+class ThresholdBatchResponseTest {
+
+    @Autowired
+    private JacksonTester<ThresholdBatchResponse> json;
+
+    @Test
+    void serializeResults() throws Exception {
+        ThresholdBatchResponse response = new ThresholdBatchResponse(Arrays.asList(
+                new ThresholdResponse(30, new ArrayList<>()), new ThresholdResponse(60, new ArrayList<>())),
+                null, true, null, false);
+
+        assertThat(this.json.write(response)).extractingJsonPathArrayValue("@.results[*].thresholdperc")
+                .containsExactly(30, 60);
+        assertThat(this.json.write(response)).doesNotHaveJsonPath("@.counts");
+        assertThat(this.json.parseObject(this.json.write(response).getJson())).isEqualTo(response);
+    }
+
+    @Test
+    void serializeCounts() throws Exception {
+        Map<Integer, Integer> counts = new LinkedHashMap<>();
+        counts.put(30, 12);
+        counts.put(60, 4);
+        ThresholdBatchResponse response = new ThresholdBatchResponse(null, counts, false, Arrays.asList(3), false);
+
+        assertThat(this.json.write(response)).extractingJsonPathNumberValue("@.counts.60").isEqualTo(4);
+        assertThat(this.json.write(response)).extractingJsonPathArrayValue("@.failed_pages").containsExactly(3);
+        assertThat(this.json.write(response)).doesNotHaveJsonPath("@.results");
+        assertThat(this.json.parseObject(this.json.write(response).getJson())).isEqualTo(response);
+    }
+}
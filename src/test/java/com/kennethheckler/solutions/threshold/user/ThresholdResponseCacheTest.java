@@ -0,0 +1,159 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
+import com.kennethheckler.solutions.threshold.user.repository.UserRecord;
+import com.kennethheckler.solutions.threshold.user.repository.UserResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+// The snapshot is refreshed in the background, so the context is closed before other tests count upstream requests
+@DirtiesContext
+class ThresholdResponseCacheTest extends SimulatedUpstreamTest {
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @DynamicPropertySource
+    static void snapshots(DynamicPropertyRegistry registry) {
+        registry.add("userrepository.snapshot-enabled", () -> true);
+        registry.add("userrepository.snapshot-refresh-interval", () -> "100ms");
+    }
+
+    private EntityExchangeResult<byte[]> get(String uri, String acceptEncoding, String ifNoneMatch) {
+        return webClient.get().uri(uri)
+                .accept(MediaType.APPLICATION_JSON)
+                .headers(headers -> {
+                    if (acceptEncoding != null) {
+                        headers.set(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+                    }
+                    if (ifNoneMatch != null) {
+                        headers.setIfNoneMatch(ifNoneMatch);
+                    }
+                })
+                .exchange()
+                .expectBody(byte[].class)
+                .returnResult();
+    }
+
+    /*
+     * Waits for the response to a threshold to be served from the cache, which tags it with an ETag.
+     */
+    private EntityExchangeResult<byte[]> getCached(String acceptEncoding) throws InterruptedException {
+        EntityExchangeResult<byte[]> result = get("/successful_user?thresholdperc=30", acceptEncoding, null);
+        for (int attempt = 0; attempt < 50 && result.getResponseHeaders().getETag() == null; attempt++) {
+            Thread.sleep(100);
+            result = get("/successful_user?thresholdperc=30", acceptEncoding, null);
+        }
+
+        assertThat(result.getResponseHeaders().getETag()).isNotNull();
+        return result;
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    @Test
+    void cachedResponseMatchesQueriedResponse() throws Exception {
+        EntityExchangeResult<byte[]> cached = getCached(null);
+        String eTag = cached.getResponseHeaders().getETag();
+        assertThat(eTag).startsWith("\"").doesNotStartWith("W/");
+        assertThat(cached.getResponseHeaders().getVary()).contains(HttpHeaders.ACCEPT_ENCODING);
+
+        // A paged request is answered from the same snapshot without the cache
+        ThresholdResponse response = objectMapper.readValue(cached.getResponseBody(), ThresholdResponse.class);
+        ThresholdResponse queried = objectMapper.readValue(
+                get("/successful_user?thresholdperc=30&limit=1000", null, null).getResponseBody(),
+                ThresholdResponse.class);
+        assertThat(response).isEqualTo(queried);
+        assertThat(response.getUsers()).hasSize(SIMULATOR.countAbove(30));
+        assertThat(response.isTruncated()).isFalse();
+    }
+
+    @Test
+    void gzipResponseHasItsOwnETag() throws Exception {
+        EntityExchangeResult<byte[]> json = getCached(null);
+        EntityExchangeResult<byte[]> gzip = getCached("gzip");
+
+        assertThat(gzip.getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gunzip(gzip.getResponseBody())).isEqualTo(json.getResponseBody());
+
+        String eTag = json.getResponseHeaders().getETag();
+        assertThat(gzip.getResponseHeaders().getETag())
+                .isEqualTo(eTag.substring(0, eTag.length() - 1) + "-gzip\"");
+    }
+
+    @Test
+    void matchingETagIsNotModified() throws Exception {
+        String eTag = getCached(null).getResponseHeaders().getETag();
+        assertThat(get("/successful_user?thresholdperc=30", null, eTag).getStatus().value()).isEqualTo(304);
+
+        String gzipETag = getCached("gzip").getResponseHeaders().getETag();
+        assertThat(get("/successful_user?thresholdperc=30", "gzip", gzipETag).getStatus().value()).isEqualTo(304);
+    }
+
+    @Test
+    void newSnapshotInvalidatesCachedResponses() throws Exception {
+        EntityExchangeResult<byte[]> before = getCached(null);
+        String eTag = before.getResponseHeaders().getETag();
+        int users = SIMULATOR.countAbove(30);
+
+        // Approve every article of a user below the threshold
+        UserResponse.Data below = SIMULATOR.getUsers().stream()
+                .filter(user -> !UserRecord.of(user).isAbove(30))
+                .findFirst()
+                .orElseThrow(IllegalStateException::new);
+        SIMULATOR.updateUser(below.getId(), 10, 10);
+        assertThat(SIMULATOR.countAbove(30)).isEqualTo(users + 1);
+
+        // Until the new snapshot is rendered, its responses are queried rather than cached, so are not tagged
+        EntityExchangeResult<byte[]> after = get("/successful_user?thresholdperc=30", null, eTag);
+        for (int attempt = 0; attempt < 50 && (after.getStatus().value() == 304
+                || after.getResponseHeaders().getETag() == null); attempt++) {
+            Thread.sleep(100);
+            after = get("/successful_user?thresholdperc=30", null, eTag);
+        }
+
+        assertThat(after.getStatus().is2xxSuccessful()).isTrue();
+        assertThat(after.getResponseHeaders().getETag()).isNotEqualTo(eTag);
+        assertThat(objectMapper.readValue(after.getResponseBody(), ThresholdResponse.class).getUsers())
+                .hasSize(users + 1);
+
+        // Leave the cache serving the generated users again for the other tests
+        SIMULATOR.reset();
+        String updatedETag = after.getResponseHeaders().getETag();
+        for (int attempt = 0; attempt < 50 && get("/successful_user?thresholdperc=30", null, updatedETag)
+                .getStatus().value() == 304; attempt++) {
+            Thread.sleep(100);
+        }
+        assertThat(getCached(null).getResponseHeaders().getETag()).isEqualTo(eTag);
+    }
+}
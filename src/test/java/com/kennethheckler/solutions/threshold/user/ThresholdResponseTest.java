@@ -6,6 +6,7 @@ import org.springframework.boot.test.autoconfigure.json.JsonTest;
 import org.springframework.boot.test.json.JacksonTester;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -30,4 +31,21 @@ class ThresholdResponseTest {
         assertThat(this.json.parse(content)).isEqualTo(original);
         assertThat(this.json.parseObject(content).getThreshold()).isEqualTo(original.getThreshold());
     }
+
+    @Test
+    void serializeIncomplete() throws Exception {
+        ThresholdResponse complete = new ThresholdResponse(30, new ArrayList<>());
+        assertThat(this.json.write(complete)).extractingJsonPathBooleanValue("@.complete").isTrue();
+        assertThat(this.json.write(complete)).doesNotHaveJsonPath("@.failed_pages");
+
+        ThresholdResponse incomplete = new ThresholdResponse(30, new ArrayList<>(), null, false, Arrays.asList(2, 5));
+        assertThat(this.json.write(incomplete)).extractingJsonPathBooleanValue("@.complete").isFalse();
+        assertThat(this.json.write(incomplete)).extractingJsonPathArrayValue("@.failed_pages").containsExactly(2, 5);
+        assertThat(this.json.parseObject(this.json.write(incomplete).getJson())).isEqualTo(incomplete);
+        assertThat(this.json.write(incomplete)).doesNotHaveJsonPath("@.truncated");
+
+        ThresholdResponse truncated = new ThresholdResponse(30, new ArrayList<>(), null, false, new ArrayList<>(), true);
+        assertThat(this.json.write(truncated)).extractingJsonPathBooleanValue("@.truncated").isTrue();
+        assertThat(this.json.parseObject(this.json.write(truncated).getJson())).isEqualTo(truncated);
+    }
 }
@@ -0,0 +1,55 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
+import com.kennethheckler.solutions.threshold.user.repository.DataSourceException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+
+/*
+ * Crawls report pages they cannot read rather than failing, so the service is replaced to fail the way it would if the
+ * users could not be read at all.
+ */
+class UserControllerDataSourceErrorTest extends SimulatedUpstreamTest {
+
+    private static final DataSourceException ERROR = new DataSourceException("UserDataSource",
+            "Unable to reach the service!");
+
+    @MockBean
+    private UserService userService;
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @Test
+    void getSuccessfulBatchAnswersBadGateway() {
+        when(userService.getUsersGreaterThanThresholds(anyList(), anyBoolean(), any()))
+                .thenReturn(Mono.error(ERROR));
+
+        webClient.get().uri("/successful_user/batch?thresholdperc=0,30")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(502)
+                .expectBody(String.class).isEqualTo(ERROR.getMessage());
+    }
+
+    @Test
+    void getSuccessfulUserCountsAnswersBadGateway() {
+        when(userService.getApprovalHistogram(any(), any())).thenReturn(Mono.error(ERROR));
+
+        webClient.get().uri("/successful_user/counts?thresholdperc=30")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(502)
+                .expectBody(String.class).isEqualTo(ERROR.getMessage());
+    }
+}
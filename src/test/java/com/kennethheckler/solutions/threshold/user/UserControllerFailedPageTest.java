@@ -0,0 +1,30 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class UserControllerFailedPageTest extends SimulatedUpstreamTest {
+
+    @Test
+    void getSuccessfulReportsFailedFirstPage(@Autowired WebTestClient webClient) {
+        SIMULATOR.failingPages(1);
+
+        ThresholdResponse response = webClient.get().uri("/successful_user?thresholdperc=30")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ThresholdResponse.class)
+                .returnResult().getResponseBody();
+
+        assertThat(response).isNotNull();
+        assertThat(response.isComplete()).isFalse();
+        assertThat(response.getFailedPages()).containsExactly(1);
+        assertThat(response.getUsers()).isEmpty();
+    }
+}
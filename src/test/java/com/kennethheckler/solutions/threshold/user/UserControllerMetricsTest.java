@@ -0,0 +1,92 @@
+package com.kennethheckler.solutions.threshold.user;
+
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class UserControllerMetricsTest extends SimulatedUpstreamTest {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    /*
+     * The registry is shared with the other tests of the application context, so each meter is compared with what it
+     * held before the request. A meter that was not registered yet held nothing.
+     */
+    private long timerCount(String name, String... tags) {
+        Timer timer = registry.find(name).tags(tags).timer();
+        return (timer == null ? 0 : timer.count());
+    }
+
+    private double counterCount(String name, String... tags) {
+        Counter counter = registry.find(name).tags(tags).counter();
+        return (counter == null ? 0 : counter.count());
+    }
+
+    private long summaryCount(String name, String... tags) {
+        DistributionSummary summary = registry.find(name).tags(tags).summary();
+        return (summary == null ? 0 : summary.count());
+    }
+
+    private double summaryTotal(String name, String... tags) {
+        DistributionSummary summary = registry.find(name).tags(tags).summary();
+        return (summary == null ? 0 : summary.totalAmount());
+    }
+
+    @Test
+    void getSuccessfulRecordsMetrics(@Autowired WebTestClient webClient) throws InterruptedException {
+        long latencies = timerCount("user.successful_user.latency", "threshold", "30-39", "response", "queried");
+        long pageReads = timerCount("user.datasource.page.read", "shard", "0", "status", "200", "conditional",
+                "false");
+        long pageBodies = summaryCount("user.datasource.page.bytes");
+        double retries = counterCount("user.datasource.page.retries");
+        double hedges = counterCount("user.datasource.page.hedges");
+        double snapshotMisses = counterCount("user.repository.snapshot.lookups", "result", "miss");
+        double crawledPages = summaryTotal("user.repository.crawl.pages", "crawl", "threshold");
+        long sorts = timerCount("user.repository.sort");
+        double failedPages = counterCount("user.repository.failed.pages");
+        double truncatedCrawls = counterCount("user.repository.truncated.crawls");
+        double cacheMisses = counterCount("user.response.cache.lookups", "result", "miss");
+        double resultUsers = summaryTotal("user.service.result.users");
+
+        webClient.get().uri("/successful_user?thresholdperc=30")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk();
+
+        // The latency of a request is recorded once its response completes, which may be just after the client has it
+        for (int attempt = 0; attempt < 50 && timerCount("user.successful_user.latency", "threshold", "30-39",
+                "response", "queried") == latencies; attempt++) {
+            Thread.sleep(100);
+        }
+        assertThat(timerCount("user.successful_user.latency", "threshold", "30-39", "response", "queried"))
+                .isEqualTo(latencies + 1);
+
+        assertThat(timerCount("user.datasource.page.read", "shard", "0", "status", "200", "conditional", "false"))
+                .isEqualTo(pageReads + 10);
+        assertThat(summaryCount("user.datasource.page.bytes")).isEqualTo(pageBodies + 10);
+        assertThat(registry.get("user.datasource.page.size").tag("shard", "0").gauge().value()).isEqualTo(10);
+        assertThat(counterCount("user.datasource.page.retries")).isEqualTo(retries);
+        assertThat(counterCount("user.datasource.page.hedges")).isEqualTo(hedges);
+
+        // Both the response cache and the repository look for a snapshot
+        assertThat(counterCount("user.repository.snapshot.lookups", "result", "miss")).isEqualTo(snapshotMisses + 2);
+        assertThat(summaryTotal("user.repository.crawl.pages", "crawl", "threshold")).isEqualTo(crawledPages + 10);
+        assertThat(timerCount("user.repository.sort")).isEqualTo(sorts + 1);
+        assertThat(counterCount("user.repository.failed.pages")).isEqualTo(failedPages);
+        assertThat(counterCount("user.repository.truncated.crawls")).isEqualTo(truncatedCrawls);
+        assertThat(registry.find("user.repository.filtered.users").counter()).isNotNull();
+
+        assertThat(counterCount("user.response.cache.lookups", "result", "miss")).isEqualTo(cacheMisses + 1);
+        assertThat(summaryTotal("user.service.result.users")).isEqualTo(resultUsers + SIMULATOR.countAbove(30));
+    }
+}
@@ -1,26 +1,203 @@
 package com.kennethheckler.solutions.threshold.user;
 
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
+import com.kennethheckler.solutions.threshold.user.repository.UserRecord;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 
+import static org.assertj.core.api.Assertions.assertThat;
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
-class UserControllerTest {
+
+class UserControllerTest extends SimulatedUpstreamTest {
+
+    @Autowired
+    private WebTestClient webClient;
+
+    private ThresholdResponse get(String uri) {
+        return webClient.get().uri(uri)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ThresholdResponse.class)
+                .returnResult().getResponseBody();
+    }
 
     @Test
-    void getSuccessful(@Autowired WebTestClient webClient) {
-        ThresholdResponse response = webClient.get().uri("/successful_user?thresholdperc=30")
+    void getSuccessful() {
+        ThresholdResponse response = get("/successful_user?thresholdperc=30");
+
+        assertThat(response).isNotNull();
+        assertThat(response.getThreshold()).isEqualTo(30);
+        assertThat(response.isComplete()).isTrue();
+        assertThat(response.getUsers()).hasSize(SIMULATOR.countAbove(30));
+        assertThat(response.getUsers()).extracting(ThresholdResponse.User::getApprovalRatePercentage)
+                .isSorted()
+                .allMatch(percentage -> percentage > 30);
+    }
+
+    @Test
+    void getSuccessfulPastTimeoutIsTruncated() {
+        SIMULATOR.slowNext(5, Duration.ofSeconds(5));
+
+        long start = System.nanoTime();
+        ThresholdResponse response = get("/successful_user?thresholdperc=0&timeout=500ms");
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(4));
+
+        // The pages before the slow one are read in time, but the rest are only kept once it is
+        assertThat(response).isNotNull();
+        assertThat(response.isTruncated()).isTrue();
+        assertThat(response.isComplete()).isFalse();
+        assertThat(response.getUsers()).isNotEmpty().hasSizeLessThan(SIMULATOR.countAbove(0));
+    }
+
+    @Test
+    void getSuccessfulPages() {
+        ThresholdResponse response = get("/successful_user?thresholdperc=30");
+        assertThat(response).isNotNull();
+
+        List<ThresholdResponse.User> users = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            String after = cursor;
+            ThresholdResponse page = webClient.get()
+                    .uri(uri -> uri.path("/successful_user")
+                            .queryParam("thresholdperc", 30)
+                            .queryParam("limit", 7)
+                            .queryParamIfPresent("cursor", Optional.ofNullable(after))
+                            .build())
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(ThresholdResponse.class)
+                    .returnResult().getResponseBody();
+
+            assertThat(page).isNotNull();
+            assertThat(page.getUsers()).hasSizeLessThanOrEqualTo(7);
+            users.addAll(page.getUsers());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null && pages <= SIMULATOR.countAbove(30));
+
+        // Every user exactly once, in the same order as the unpaged response
+        assertThat(cursor).isNull();
+        assertThat(pages).isEqualTo((SIMULATOR.countAbove(30) + 6) / 7);
+        assertThat(users).isEqualTo(response.getUsers());
+    }
+
+    @Test
+    void getSuccessfulRejectsInvalidCursor() {
+        webClient.get().uri("/successful_user?thresholdperc=30&limit=7&cursor=not-a-cursor")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void streamSuccessful() {
+        ThresholdResponse response = get("/successful_user?thresholdperc=30");
+        assertThat(response).isNotNull();
+
+        for (MediaType mediaType : new MediaType[] {MediaType.APPLICATION_NDJSON, MediaType.TEXT_EVENT_STREAM}) {
+            List<ThresholdResponse.User> users = webClient.get().uri("/successful_user?thresholdperc=30")
+                    .accept(mediaType)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().contentTypeCompatibleWith(mediaType)
+                    .returnResult(ThresholdResponse.User.class)
+                    .getResponseBody()
+                    .collectList()
+                    .block(Duration.ofSeconds(10));
+
+            // Every user of the JSON response, one element each, in the same order
+            assertThat(users).hasSize(SIMULATOR.countAbove(30));
+            assertThat(users).isEqualTo(response.getUsers());
+        }
+    }
+
+    @Test
+    void getSuccessfulBatch() {
+        ThresholdBatchResponse batch = webClient.get().uri("/successful_user/batch?thresholdperc=60,0,30")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ThresholdBatchResponse.class)
+                .returnResult().getResponseBody();
+
+        // One result for each threshold, in the order they were passed in, the same as asking for it on its own
+        assertThat(batch).isNotNull();
+        assertThat(batch.isComplete()).isTrue();
+        assertThat(batch.getCounts()).isNull();
+        assertThat(batch.getResults()).extracting(ThresholdResponse::getThreshold).containsExactly(60, 0, 30);
+        for (ThresholdResponse result : batch.getResults()) {
+            assertThat(result.getUsers()).hasSize(SIMULATOR.countAbove(result.getThreshold()));
+            assertThat(result.getUsers())
+                    .isEqualTo(get("/successful_user?thresholdperc=" + result.getThreshold()).getUsers());
+        }
+    }
+
+    @Test
+    void getSuccessfulBatchCounts() {
+        ThresholdBatchResponse batch = webClient.get()
+                .uri("/successful_user/batch?thresholdperc=60&thresholdperc=0&thresholdperc=30&counts=true")
                 .accept(MediaType.APPLICATION_JSON)
                 .exchange()
                 .expectStatus().isOk()
-                .expectBody(ThresholdResponse.class).isEqualTo(new ThresholdResponse(30, new ArrayList<>()))
+                .expectBody(ThresholdBatchResponse.class)
                 .returnResult().getResponseBody();
 
-        System.out.println(response);
+        assertThat(batch).isNotNull();
+        assertThat(batch.getResults()).isNull();
+        assertThat(batch.getCounts()).containsOnlyKeys(60, 0, 30)
+                .containsEntry(60, SIMULATOR.countAbove(60))
+                .containsEntry(0, SIMULATOR.countAbove(0))
+                .containsEntry(30, SIMULATOR.countAbove(30));
+    }
+
+    @Test
+    void getSuccessfulUserCounts() {
+        ApprovalHistogramResponse counts = webClient.get().uri("/successful_user/counts?thresholdperc=30")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ApprovalHistogramResponse.class)
+                .returnResult().getResponseBody();
+
+        int rated = (int) SIMULATOR.getUsers().stream().filter(user -> UserRecord.of(user).hasApprovalRate()).count();
+
+        assertThat(counts).isNotNull();
+        assertThat(counts.isComplete()).isTrue();
+        assertThat(counts.getTotal()).isEqualTo(rated);
+        assertThat(counts.getBuckets()).hasSize(101);
+        assertThat(counts.getBuckets().stream().mapToInt(Integer::intValue).sum()).isEqualTo(rated);
+        assertThat(counts.getAbove()).hasSize(101);
+        for (int threshold = 0; threshold < 100; threshold++) {
+            assertThat(counts.getAbove().get(threshold)).as("above %d", threshold)
+                    .isEqualTo(SIMULATOR.countAbove(threshold));
+        }
+        assertThat(counts.getAbove().get(100)).isZero();
+        assertThat(counts.getThreshold()).isEqualTo(30);
+        assertThat(counts.getCount()).isEqualTo(SIMULATOR.countAbove(30));
+    }
+
+    @Test
+    void getSuccessfulRejectsThresholdOutOfRange() {
+        for (String thresholdperc : new String[] {"-1", "100", "2147483647"}) {
+            webClient.get().uri("/successful_user?thresholdperc=" + thresholdperc)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+            webClient.get().uri("/successful_user?thresholdperc=" + thresholdperc)
+                    .accept(MediaType.APPLICATION_NDJSON)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
     }
-}
\ No newline at end of file
+}
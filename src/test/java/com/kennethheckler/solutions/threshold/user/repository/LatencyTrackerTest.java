@@ -0,0 +1,35 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyTrackerTest {
+
+    @Test
+    void percentileNeedsMinimumSamples() {
+        LatencyTracker tracker = new LatencyTracker(10, 3);
+        tracker.record(1);
+        tracker.record(2);
+
+        assertThat(tracker.percentile(95)).isNull();
+    }
+
+    @Test
+    void percentileFollowsRecentLatencies() {
+        LatencyTracker tracker = new LatencyTracker(100, 10);
+        for (int millis = 1; millis <= 100; millis++) {
+            tracker.record(Duration.ofMillis(millis).toNanos());
+        }
+
+        assertThat(tracker.percentile(95)).isEqualTo(Duration.ofMillis(95));
+        assertThat(tracker.percentile(50)).isEqualTo(Duration.ofMillis(50));
+
+        for (int i = 0; i < 100; i++) {
+            tracker.record(Duration.ofMillis(500).toNanos());
+        }
+        assertThat(tracker.percentile(50)).isEqualTo(Duration.ofMillis(500));
+    }
+}
@@ -0,0 +1,112 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PageSizerTest {
+
+    private static final long FAST = Duration.ofMillis(10).toNanos();
+
+    private static final long SLOW = Duration.ofSeconds(5).toNanos();
+
+    @Test
+    void probesUpToMaximum() {
+        PageSizer sizer = new PageSizer(10, 100, Duration.ofSeconds(1), 1 << 20);
+
+        readWindow(sizer, FAST);
+        assertThat(sizer.getSize()).isEqualTo(20);
+        readWindow(sizer, FAST);
+        readWindow(sizer, FAST);
+        assertThat(sizer.getSize()).isEqualTo(80);
+        readWindow(sizer, FAST);
+        assertThat(sizer.getSize()).isEqualTo(100);
+        readWindow(sizer, FAST);
+        assertThat(sizer.getSize()).isEqualTo(100);
+    }
+
+    @Test
+    void backsOffAndSettlesBetweenLimits() {
+        PageSizer sizer = new PageSizer(100, 1000, Duration.ofSeconds(1), 1 << 20);
+
+        readWindow(sizer, FAST);
+        assertThat(sizer.getSize()).isEqualTo(200);
+        readWindow(sizer, SLOW);
+        assertThat(sizer.getSize()).isEqualTo(100);
+        readWindow(sizer, FAST);
+        assertThat(sizer.getSize()).isEqualTo(150);
+    }
+
+    @Test
+    void ignoresSingleSlowPage() {
+        PageSizer sizer = new PageSizer(10, 100, Duration.ofSeconds(1), 1 << 20);
+
+        sizer.record(10, 10, SLOW, 100);
+        for (int i = 1; i < PageSizer.WINDOW; i++) {
+            sizer.record(10, 10, FAST, 100);
+        }
+
+        assertThat(sizer.getSize()).isEqualTo(20);
+    }
+
+    @Test
+    void backsOffPageTooLargeToReadStraightAway() {
+        PageSizer sizer = new PageSizer(100, 1000, Duration.ofSeconds(1), 1000);
+
+        sizer.recordTooLarge(100);
+        assertThat(sizer.getSize()).isEqualTo(50);
+        sizer.recordTooLarge(100);
+        assertThat(sizer.getSize()).isEqualTo(50);
+    }
+
+    @Test
+    void backsOffLargePageStraightAway() {
+        PageSizer sizer = new PageSizer(100, 1000, Duration.ofSeconds(1), 1000);
+
+        sizer.record(100, 100, FAST, 2000);
+
+        assertThat(sizer.getSize()).isEqualTo(50);
+    }
+
+    @Test
+    void stopsAtSizeDataSourceHonors() {
+        PageSizer sizer = new PageSizer(10, 1000, Duration.ofSeconds(1), 1 << 20);
+        readWindow(sizer, FAST);
+        readWindow(sizer, FAST);
+        assertThat(sizer.getSize()).isEqualTo(40);
+
+        sizer.record(40, 25, FAST, 100);
+        assertThat(sizer.getSize()).isEqualTo(25);
+        readWindow(sizer, FAST);
+        assertThat(sizer.getSize()).isEqualTo(25);
+    }
+
+    @Test
+    void stopsWhenDataSourceIgnoresSize() {
+        PageSizer sizer = new PageSizer(10, 1000, Duration.ofSeconds(1), 1 << 20);
+
+        sizer.record(10, null, FAST, 100);
+        readWindow(sizer, FAST);
+
+        assertThat(sizer.getSize()).isEqualTo(10);
+    }
+
+    @Test
+    void ignoresReadsAtOldSize() {
+        PageSizer sizer = new PageSizer(10, 100, Duration.ofSeconds(1), 1000);
+        readWindow(sizer, FAST);
+
+        sizer.record(10, 10, FAST, 2000);
+
+        assertThat(sizer.getSize()).isEqualTo(20);
+    }
+
+    private static void readWindow(PageSizer sizer, long nanos) {
+        int size = sizer.getSize();
+        for (int i = 0; i < PageSizer.WINDOW; i++) {
+            sizer.record(size, size, nanos, 100);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<Integer, String> singleFlight = new SingleFlight<>();
+
+    @Test
+    void concurrentCallersShareOneCall() {
+        AtomicInteger calls = new AtomicInteger();
+        Sinks.One<String> upstream = Sinks.one();
+
+        CompletableFuture<String> first = singleFlight.execute(1, () -> {
+            calls.incrementAndGet();
+            return upstream.asMono();
+        }).toFuture();
+        CompletableFuture<String> second = singleFlight.execute(1, () -> {
+            calls.incrementAndGet();
+            return upstream.asMono();
+        }).toFuture();
+
+        assertThat(singleFlight.inFlightCount()).isEqualTo(1);
+        upstream.tryEmitValue("users");
+
+        assertThat(first.join()).isEqualTo("users");
+        assertThat(second.join()).isEqualTo("users");
+        assertThat(calls).hasValue(1);
+        assertThat(singleFlight.inFlightCount()).isZero();
+    }
+
+    @Test
+    void completedCallsAreNotReused() {
+        AtomicInteger calls = new AtomicInteger();
+
+        singleFlight.execute(1, () -> Mono.fromCallable(() -> "call " + calls.incrementAndGet())).block();
+        String second = singleFlight.execute(1, () -> Mono.fromCallable(() -> "call " + calls.incrementAndGet())).block();
+
+        assertThat(second).isEqualTo("call 2");
+    }
+
+    @Test
+    void callIsCancelledOnlyWhenEveryCallerCancels() {
+        AtomicInteger cancellations = new AtomicInteger();
+        Sinks.One<String> upstream = Sinks.one();
+        Mono<String> call = upstream.asMono().doOnCancel(cancellations::incrementAndGet);
+
+        Disposable first = singleFlight.execute(1, () -> call).subscribe();
+        Disposable second = singleFlight.execute(1, () -> call).subscribe();
+
+        first.dispose();
+        assertThat(cancellations).hasValue(0);
+        assertThat(singleFlight.inFlightCount()).isEqualTo(1);
+
+        second.dispose();
+        assertThat(cancellations).hasValue(1);
+        assertThat(singleFlight.inFlightCount()).isZero();
+    }
+
+    @Test
+    void errorsAreShared() {
+        Sinks.One<String> upstream = Sinks.one();
+
+        CompletableFuture<String> first = singleFlight.execute(1, upstream::asMono).toFuture();
+        CompletableFuture<String> second = singleFlight.execute(1, upstream::asMono).toFuture();
+        upstream.tryEmitError(new IllegalStateException("upstream failed"));
+
+        assertThatThrownBy(first::join).hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(second::join).hasCauseInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,96 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserDataSetTest {
+
+    private static final Instant UPDATED = Instant.parse("2022-11-01T00:00:00Z");
+
+    private static UserResponse.Data user(int id, int submissionCount, Instant updatedAt) {
+        return new UserResponse.Data(id, "user" + id, null, 10, updatedAt, submissionCount, 0, 0L);
+    }
+
+    private static UserResponse page(int page, int totalPages, UserResponse.Data... users) {
+        return new UserResponse(page, 10, 20, totalPages, new ArrayList<>(Arrays.asList(users)));
+    }
+
+    @Test
+    void applyOnlyReplacesNewerUsers() {
+        UserDataSet dataSet = new UserDataSet();
+        dataSet.apply(page(1, 1, user(1, 5, UPDATED), user(2, 5, UPDATED)));
+        dataSet.toSnapshot(Clock.systemUTC());
+
+        dataSet.apply(page(1, 1, user(1, 9, UPDATED), user(2, 5, UPDATED)));
+        assertThat(dataSet.isModified()).isFalse();
+
+        dataSet.apply(page(1, 1, user(1, 9, UPDATED.plusSeconds(1)), user(2, 5, UPDATED)));
+        assertThat(dataSet.isModified()).isTrue();
+        assertThat(dataSet.toSnapshot(Clock.systemUTC()).findByApprovedPercentGreaterThanThreshold(80))
+                .extracting(UserRecord::getId).containsExactly(1);
+    }
+
+    @Test
+    void pruneRemovesUsersNoLongerOnAPage() {
+        UserDataSet dataSet = new UserDataSet();
+        dataSet.apply(page(1, 2, user(1, 5, UPDATED)));
+        dataSet.apply(page(2, 2, user(2, 5, UPDATED), user(3, 5, UPDATED)));
+        dataSet.toSnapshot(Clock.systemUTC());
+
+        dataSet.apply(page(1, 1, user(1, 5, UPDATED), user(2, 5, UPDATED)));
+        dataSet.prune();
+
+        assertThat(dataSet.isModified()).isTrue();
+        assertThat(dataSet.toSnapshot(Clock.systemUTC()).getUsers())
+                .extracting(UserRecord::getId).containsExactly(1, 2);
+    }
+
+    @Test
+    void failedPagesKeepTheirUsersUntilReadAgain() {
+        UserDataSet dataSet = new UserDataSet();
+        dataSet.apply(page(1, 3, user(1, 5, UPDATED)));
+        dataSet.apply(page(2, 3, user(2, 5, UPDATED)));
+        dataSet.toSnapshot(Clock.systemUTC());
+
+        dataSet.markFailed(2);
+        dataSet.markFailed(3);
+        dataSet.prune();
+        UserSnapshot incomplete = dataSet.toSnapshot(Clock.systemUTC());
+        assertThat(incomplete.isComplete()).isFalse();
+        assertThat(incomplete.getFailedPages()).containsExactly(2, 3);
+        assertThat(incomplete.getUsers()).extracting(UserRecord::getId).containsExactly(1, 2);
+
+        dataSet.markRead(2);
+        dataSet.apply(page(1, 2, user(1, 5, UPDATED)));
+        dataSet.prune();
+        assertThat(dataSet.isModified()).isTrue();
+        assertThat(dataSet.toSnapshot(Clock.systemUTC()).isComplete()).isTrue();
+    }
+
+    @Test
+    void pruneKeepsRemainingUsersFindable() {
+        UserDataSet dataSet = new UserDataSet();
+        UserResponse.Data[] users = new UserResponse.Data[1000];
+        for (int id = 0; id < users.length; id++) {
+            users[id] = user(id, 5, UPDATED);
+        }
+        dataSet.apply(page(1, 2, Arrays.copyOfRange(users, 0, 500)));
+        dataSet.apply(page(2, 2, Arrays.copyOfRange(users, 500, 1000)));
+        dataSet.toSnapshot(Clock.systemUTC());
+
+        dataSet.apply(page(1, 1, Arrays.copyOfRange(users, 250, 750)));
+        dataSet.prune();
+        assertThat(dataSet.size()).isEqualTo(500);
+
+        dataSet.apply(page(1, 1, Arrays.copyOfRange(users, 250, 750)));
+        dataSet.prune();
+        assertThat(dataSet.toSnapshot(Clock.systemUTC()).getUsers())
+                .extracting(UserRecord::getId).hasSize(500).doesNotHaveDuplicates().allMatch(id -> id >= 250 && id < 750);
+    }
+}
@@ -0,0 +1,70 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import io.netty.channel.ChannelOption;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientConfig;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserDataSourceConfigurationTest {
+
+    private static UserDataSourceConfiguration bind(Map<String, String> properties) {
+        properties.put("userdatasource.host", "localhost");
+        properties.put("userdatasource.path", "api/article_users");
+        return new Binder(new MapConfigurationPropertySource(properties))
+                .bind("userdatasource", UserDataSourceConfiguration.class).get();
+    }
+
+    @Test
+    void bindsClientDefaults() {
+        UserDataSourceConfiguration configuration = bind(new HashMap<>());
+
+        assertThat(configuration.getMaxConnections()).isEqualTo(16);
+        assertThat(configuration.getMaxIdleTime()).isEqualTo(Duration.ofSeconds(30));
+        assertThat(configuration.getConnectTimeout()).isEqualTo(Duration.ofSeconds(5));
+        assertThat(configuration.getReadTimeout()).isEqualTo(Duration.ofSeconds(10));
+        assertThat(configuration.isHttp2()).isFalse();
+        assertThat(configuration.isCompression()).isTrue();
+    }
+
+    @Test
+    void buildsClientFromBoundProperties() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("userdatasource.max-connections", "4");
+        properties.put("userdatasource.max-idle-time", "1m");
+        properties.put("userdatasource.connect-timeout", "250ms");
+        properties.put("userdatasource.read-timeout", "3s");
+        properties.put("userdatasource.http2", "true");
+        properties.put("userdatasource.compression", "false");
+        UserDataSourceConfiguration configuration = bind(properties);
+
+        assertThat(configuration.getMaxConnections()).isEqualTo(4);
+        assertThat(configuration.getMaxIdleTime()).isEqualTo(Duration.ofMinutes(1));
+        assertThat(configuration.getConnectTimeout()).isEqualTo(Duration.ofMillis(250));
+
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("test")
+                .maxConnections(configuration.getMaxConnections())
+                .maxIdleTime(configuration.getMaxIdleTime())
+                .build();
+        try {
+            HttpClient client = UserDataSource.createHttpClient(configuration, connectionProvider);
+            HttpClientConfig config = client.configuration();
+
+            assertThat(config.options().get(ChannelOption.CONNECT_TIMEOUT_MILLIS)).isEqualTo(250);
+            assertThat(config.responseTimeout()).isEqualTo(Duration.ofSeconds(3));
+            assertThat(config.protocols()).containsExactly(HttpProtocol.H2, HttpProtocol.HTTP11);
+            assertThat(config.isAcceptGzip()).isFalse();
+        } finally {
+            connectionProvider.dispose();
+        }
+    }
+}
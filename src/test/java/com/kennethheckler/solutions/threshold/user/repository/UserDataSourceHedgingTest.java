@@ -0,0 +1,71 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class UserDataSourceHedgingTest extends SimulatedUpstreamTest {
+
+    @Autowired
+    private UserDataSource dataSource;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // Reads are not retried, so a read only succeeds if the hedged request itself does
+    @DynamicPropertySource
+    static void hedging(DynamicPropertyRegistry registry) {
+        registry.add("userdatasource.hedging", () -> true);
+        registry.add("userdatasource.hedge-percentile", () -> 50);
+        registry.add("userdatasource.retries", () -> 0);
+    }
+
+    // Hedging only starts once enough page read latencies are known to tell a slow read
+    @BeforeEach
+    void recordLatencies() {
+        for (int read = 0; read < 40; read++) {
+            dataSource.read(0, 1, 0, UserFilter.ALL).block();
+        }
+    }
+
+    private double hedges() {
+        Counter counter = registry.find("user.datasource.page.hedges").counter();
+        return (counter == null ? 0 : counter.count());
+    }
+
+    @Test
+    void slowReadIsAnsweredByDuplicate() {
+        SIMULATOR.slowNext(2, Duration.ofSeconds(5));
+        long requests = SIMULATOR.getRequestCount();
+        double hedges = hedges();
+
+        long start = System.nanoTime();
+        UserResponse page = dataSource.read(0, 2, 0, UserFilter.ALL).block();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+        assertThat(page).isNotNull();
+        assertThat(page.getData()).hasSize(10);
+
+        assertThat(SIMULATOR.getRequestCount() - requests).isEqualTo(2);
+        assertThat(hedges()).isEqualTo(hedges + 1);
+    }
+
+    @Test
+    void failedReadIsAnsweredByDuplicate() {
+        // The original request fails once the duplicate has been sent, but before the duplicate succeeds
+        SIMULATOR.slowNext(3, Duration.ofMillis(200), Duration.ofMillis(600)).failNext(3, 1);
+
+        UserResponse page = dataSource.read(0, 3, 0, UserFilter.ALL).block();
+        assertThat(page).isNotNull();
+        assertThat(page.getData()).hasSize(10);
+    }
+}
@@ -0,0 +1,77 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+class UserDataSourceTest extends SimulatedUpstreamTest {
+
+    @Autowired
+    private UserDataSource dataSource;
+
+    @Test
+    void filteredReadDoesNotRecordPageValidators() {
+        UserResponse filtered = dataSource.read(0, 2, 0, UserFilter.of(UserQuery.of(30))).block();
+        assertThat(filtered).isNotNull();
+
+        // A filtered page holds only some of its users, so it must not make the conditional read skip the page
+        UserResponse page = dataSource.readIfModified(0, 2, 0).block();
+        assertThat(page).isNotNull();
+        assertThat(page.getData()).hasSize(10);
+
+        assertThat(dataSource.readIfModified(0, 2, 0).block()).isNull();
+    }
+
+    @Test
+    void newPageSizeForgetsPageValidators() {
+        assertThat(dataSource.readIfModified(0, 5, 10).block()).isNotNull();
+        assertThat(dataSource.readIfModified(0, 5, 10).block()).isNull();
+
+        // A new page size renumbers every page, so the validators of the old page size are forgotten
+        assertThat(dataSource.readIfModified(0, 5, 5).block()).isNotNull();
+        assertThat(dataSource.readIfModified(0, 5, 5).block()).isNull();
+
+        UserResponse page = dataSource.readIfModified(0, 5, 10).block();
+        assertThat(page).isNotNull();
+        assertThat(page.getData()).hasSize(10);
+    }
+
+    @Test
+    void failedReadIsRetried() {
+        SIMULATOR.failNext(4, 1);
+        long requests = SIMULATOR.getRequestCount();
+
+        UserResponse page = dataSource.read(0, 4, 0, UserFilter.ALL).block();
+        assertThat(page).isNotNull();
+        assertThat(page.getData()).hasSize(10);
+
+        // The failed request and the retry that succeeded
+        assertThat(SIMULATOR.getRequestCount() - requests).isEqualTo(2);
+    }
+
+    @Test
+    void undefinedErrorStatusIsRetriedAsDataSourceError() {
+        SIMULATOR.failureStatus(522).failingPages(3);
+        long requests = SIMULATOR.getRequestCount();
+
+        assertThatThrownBy(() -> dataSource.read(0, 3, 0, UserFilter.ALL).block())
+                .hasCauseInstanceOf(DataSourceException.class);
+
+        // The first request and both retries
+        assertThat(SIMULATOR.getRequestCount() - requests).isEqualTo(3);
+    }
+
+    @Test
+    void pageLargerThanMaxPageSizeIsNotRead() {
+        assertThat(dataSource.read(0, 1, 10, UserFilter.ALL).block()).isNotNull();
+
+        assertThatThrownBy(() -> dataSource.read(0, 1, 50, UserFilter.ALL).block())
+                .hasCauseInstanceOf(DataSourceException.class)
+                .hasRootCauseInstanceOf(DataBufferLimitException.class);
+    }
+}
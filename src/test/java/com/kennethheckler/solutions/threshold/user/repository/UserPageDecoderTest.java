@@ -0,0 +1,59 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserPageDecoderTest {
+
+    private static final String PAGE = "{\"page\":2,\"per_page\":10,\"total\":19,\"total_pages\":2,\"data\":[" +
+            "{\"id\":1,\"username\":\"epaga\",\"about\":\"<p>Java developer</p>\",\"submitted\":10," +
+            "\"updated_at\":\"2019-08-24T17:15:16.000Z\",\"submission_count\":9,\"comment_count\":3,\"created_at\":1288112060}," +
+            "{\"id\":2,\"username\":\"panny\",\"about\":null,\"submitted\":10,\"updated_at\":\"2019-08-24T17:15:16.000Z\"," +
+            "\"submission_count\":2,\"comment_count\":0,\"created_at\":1288112061}]}";
+
+    private final UserPageDecoder decoder = new UserPageDecoder(new JsonFactory());
+
+    private static InputStream json(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decode() throws IOException {
+        UserResponse response = decoder.decode(json(PAGE), UserFilter.ALL);
+
+        assertThat(response).isEqualTo(new UserResponse(2, 10, 19, 2, null));
+        assertThat(response.getTotalPages()).isEqualTo(2);
+        assertThat(response.getData()).extracting(UserResponse.Data::getUsername).containsExactly("epaga", "panny");
+
+        UserResponse.Data user = response.getData().get(0);
+        assertThat(user.getSubmitted()).isEqualTo(10);
+        assertThat(user.getSubmissionCount()).isEqualTo(9);
+        assertThat(user.getUpdatedAt()).isEqualTo(Instant.parse("2019-08-24T17:15:16Z"));
+        assertThat(user.getAbout()).isNull();
+    }
+
+    @Test
+    void decodeFiltered() throws IOException {
+        UserResponse response = decoder.decode(json(PAGE), UserFilter.of(UserQuery.of(50)));
+
+        assertThat(response.getData()).extracting(UserResponse.Data::getId).containsExactly(1);
+
+        UserQuery bounded = new UserQuery(0, 10, 30, 10, null, null);
+        assertThat(decoder.decode(json(PAGE), UserFilter.of(bounded)).getData()).extracting(UserResponse.Data::getId)
+                .containsExactly(2);
+    }
+
+    @Test
+    void decodeInvalid() {
+        assertThatThrownBy(() -> decoder.decode(json("[]"), UserFilter.ALL)).isInstanceOf(IOException.class);
+    }
+}
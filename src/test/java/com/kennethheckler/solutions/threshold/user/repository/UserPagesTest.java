@@ -0,0 +1,33 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserPagesTest {
+
+    private static UserResponse.Data user(int id, Integer submitted, Integer submissionCount) {
+        return new UserResponse.Data(id, "user" + id, null, submitted, null, submissionCount, 0, 0L);
+    }
+
+    @Test
+    void filterKeepsMatchingUsersOfEachPage() {
+        UserPages pages = new UserPages(Arrays.asList(
+                new UserResponse(1, 3, 5, 2, Arrays.asList(user(1, 10, 3), user(2, 10, 9), user(3, null, null))),
+                new UserResponse(2, 3, 5, 2, Arrays.asList(user(4, 10000, 3004), user(5, 10, 10)))),
+                Collections.singletonList(3), true);
+
+        UserPages filtered = pages.filter(UserFilter.of(UserQuery.of(30)));
+
+        assertThat(filtered.getPages()).hasSize(2);
+        assertThat(filtered.getPages().get(0).getData()).extracting(UserResponse.Data::getId).containsExactly(2);
+        assertThat(filtered.getPages().get(1).getData()).extracting(UserResponse.Data::getId).containsExactly(4, 5);
+        assertThat(filtered.getPages().get(1).getTotalPages()).isEqualTo(2);
+        assertThat(filtered.getFailedPages()).containsExactly(3);
+        assertThat(filtered.isTruncated()).isTrue();
+        assertThat(pages.getPages().get(0).getData()).hasSize(3);
+    }
+}
@@ -0,0 +1,56 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserRecordTest {
+
+    @Test
+    void approvalTenthsRoundsHalfUp() {
+        assertThat(UserRecord.approvalTenths(3, 2)).isEqualTo(667);
+        assertThat(UserRecord.approvalTenths(2000, 1)).isEqualTo(1);
+        assertThat(UserRecord.approvalTenths(10000, 3005)).isEqualTo(301);
+        assertThat(UserRecord.approvalTenths(10000, 3004)).isEqualTo(300);
+        assertThat(UserRecord.approvalTenths(10, 10)).isEqualTo(1000);
+        assertThat(UserRecord.approvalTenths(0, 0)).isEqualTo(UserRecord.NO_APPROVAL_RATE);
+        assertThat(UserRecord.approvalTenths(5, 6)).isEqualTo(UserRecord.NO_APPROVAL_RATE);
+    }
+
+    @Test
+    void isAboveComparesExactly() {
+        assertThat(UserRecord.of(new UserResponse.Data(1, "a", null, 10000, null, 3004, 0, 0L)).isAbove(30)).isTrue();
+        assertThat(UserRecord.of(new UserResponse.Data(2, "b", null, 10, null, 3, 0, 0L)).isAbove(30)).isFalse();
+        assertThat(UserRecord.of(new UserResponse.Data(3, "c", null, 10000, null, 2996, 0, 0L)).isAbove(29)).isTrue();
+        assertThat(UserRecord.of(new UserResponse.Data(4, "d", null, 10, null, 10, 0, 0L))
+                .isAbove(Integer.MAX_VALUE)).isFalse();
+        assertThat(UserRecord.of(new UserResponse.Data(5, "e", null, 0, null, 0, 0, 0L)).isAbove(-1)).isFalse();
+    }
+
+    @Test
+    void approvalRankSeparatesWholePercentages() {
+        assertThat(UserRecord.approvalRank(10000, 2996)).isLessThan(UserRecord.rankOf(30));
+        assertThat(UserRecord.approvalRank(10, 3)).isEqualTo(UserRecord.rankOf(30));
+        assertThat(UserRecord.approvalRank(10000, 3004)).isGreaterThan(UserRecord.rankOf(30));
+        assertThat(UserRecord.approvalRank(10000, 3004)).isLessThan(UserRecord.approvalRank(10000, 3005));
+        assertThat(UserRecord.approvalRank(10, 10)).isEqualTo(UserRecord.rankOf(100));
+        assertThat(UserRecord.approvalRank(0, 0)).isEqualTo(UserRecord.NO_APPROVAL_RATE);
+        assertThat(UserRecord.rankOf(Integer.MAX_VALUE)).isGreaterThan(UserRecord.rankOf(100));
+        assertThat(UserRecord.rankOf(Integer.MIN_VALUE)).isLessThan(UserRecord.rankOf(0));
+    }
+
+    @Test
+    void ofNormalizesUser() {
+        Instant updatedAt = Instant.parse("2022-11-01T00:00:00Z");
+        UserRecord user = UserRecord.of(new UserResponse.Data(7, "  ", null, -1, updatedAt, null, 0, 0L));
+
+        assertThat(user.getId()).isEqualTo(7);
+        assertThat(user.getUsername()).isEqualTo(UserRecord.NO_USERNAME);
+        assertThat(user.getSubmitted()).isZero();
+        assertThat(user.getSubmissionCount()).isZero();
+        assertThat(user.hasApprovalRate()).isFalse();
+        assertThat(user.getUpdatedAt()).isEqualTo(updatedAt.toEpochMilli());
+    }
+}
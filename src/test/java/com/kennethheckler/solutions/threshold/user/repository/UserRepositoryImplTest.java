@@ -0,0 +1,40 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import com.kennethheckler.solutions.threshold.simulator.SimulatedUpstreamTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class UserRepositoryImplTest extends SimulatedUpstreamTest {
+
+    @Autowired
+    private UserRepository userRepo;
+
+    @Test
+    void concurrentFilteredQueriesShareOneCrawl() {
+        // The top users and the order do not change which users are read, so both queries keep the same users
+        UserQuery bounded = new UserQuery(30, 40, 90, 0, null, UserQuery.Order.ASCENDING);
+        UserQuery top = new UserQuery(30, 40, 90, 0, 5, UserQuery.Order.DESCENDING);
+        assertThat(UserFilter.of(top)).isEqualTo(UserFilter.of(bounded));
+
+        // Slow enough pages that the second query starts while the first one is still crawling
+        SIMULATOR.latency(Duration.ofMillis(50), Duration.ofMillis(60));
+        long requests = SIMULATOR.getRequestCount();
+
+        List<UserPages> shards = Flux.merge(userRepo.find(bounded, null), userRepo.find(top, null))
+                .collectList()
+                .block();
+
+        // One request for each of the 10 pages of the single shard
+        assertThat(SIMULATOR.getRequestCount() - requests).isEqualTo(10);
+        assertThat(shards).hasSize(2);
+        assertThat(shards.get(0).getPages()).hasSize(10);
+        assertThat(shards.get(1).getPages()).isEqualTo(shards.get(0).getPages());
+    }
+}
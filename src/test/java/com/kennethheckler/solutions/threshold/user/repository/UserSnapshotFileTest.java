@@ -0,0 +1,55 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserSnapshotFileTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2022-11-01T00:00:00Z"), ZoneOffset.UTC);
+
+    private static UserRecord user(int id, String username, int submitted, int submissionCount) {
+        return UserRecord.of(new UserResponse.Data(id, username, null, submitted, null, submissionCount, 0, 0L));
+    }
+
+    @Test
+    void readReturnsWrittenSnapshot(@TempDir Path directory) throws IOException {
+        UserSnapshot snapshot = UserSnapshot.of(Arrays.asList(
+                user(1, "epaga", 10, 9), user(2, "\u00dcn\u00efc\u00f6d\u00e9", 10, 3), user(3, "epaga", 10, 5)),
+                Arrays.asList(4, 2), CLOCK);
+        UserSnapshotFile file = new UserSnapshotFile(directory.resolve("snapshots/users.bin"));
+
+        file.write(snapshot);
+        UserSnapshot restored = file.read(CLOCK);
+
+        assertThat(restored.getUsers()).containsExactlyElementsOf(snapshot.getUsers());
+        assertThat(restored.getCreatedAt()).isEqualTo(snapshot.getCreatedAt());
+        assertThat(restored.getFailedPages()).containsExactly(2, 4);
+        assertThat(restored.isComplete()).isFalse();
+        assertThat(restored.findByApprovedPercentGreaterThanThreshold(40)).extracting(UserRecord::getId)
+                .containsExactly(3, 1);
+    }
+
+    @Test
+    void readRejectsCorruptFile(@TempDir Path directory) throws IOException {
+        UserSnapshotFile file = new UserSnapshotFile(directory.resolve("users.bin"));
+        file.write(UserSnapshot.of(Arrays.asList(user(1, "epaga", 10, 9)), CLOCK));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.getPath().toFile(), "rw")) {
+            raf.seek(30);
+            raf.write(raf.read() ^ 0xFF);
+        }
+
+        assertThatThrownBy(() -> file.read(CLOCK)).isInstanceOf(IOException.class);
+    }
+}
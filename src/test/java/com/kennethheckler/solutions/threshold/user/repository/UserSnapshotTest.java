@@ -0,0 +1,166 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserSnapshotTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2022-11-01T00:00:00Z"), ZoneOffset.UTC);
+
+    private static UserRecord user(int id, int submitted, int submissionCount) {
+        return UserRecord.of(data(id, submitted, submissionCount));
+    }
+
+    private static UserResponse.Data data(int id, int submitted, int submissionCount) {
+        return new UserResponse.Data(id, "user" + id, null, submitted, null, submissionCount, 0, 0L);
+    }
+
+    @Test
+    void findByApprovedPercentGreaterThanThreshold() {
+        UserSnapshot snapshot = UserSnapshot.of(Arrays.asList(
+                user(1, 10, 9), user(2, 10, 3), user(3, 10, 5), user(4, 0, 0), user(5, 10, 5)), CLOCK);
+
+        assertThat(snapshot.size()).isEqualTo(4);
+        assertThat(snapshot.findByApprovedPercentGreaterThanThreshold(0)).extracting(UserRecord::getId)
+                .containsExactly(2, 3, 5, 1);
+        assertThat(snapshot.findByApprovedPercentGreaterThanThreshold(50)).extracting(UserRecord::getId)
+                .containsExactly(1);
+        assertThat(snapshot.findByApprovedPercentGreaterThanThreshold(99)).isEmpty();
+    }
+
+    @Test
+    void findAfterCursor() {
+        UserSnapshot snapshot = UserSnapshot.of(Arrays.asList(
+                user(1, 10, 9), user(2, 10, 3), user(3, 10, 5), user(5, 10, 5)), CLOCK);
+        UserCursor cursor = UserCursor.decode(UserCursor.of(user(3, 10, 5)).encode());
+
+        assertThat(snapshot.find(UserQuery.of(0), cursor)).extracting(UserRecord::getId)
+                .containsExactly(5, 1);
+        assertThat(snapshot.find(UserQuery.of(60), cursor)).extracting(UserRecord::getId)
+                .containsExactly(1);
+    }
+
+    @Test
+    void thresholdComparesExactApprovalRate() {
+        UserSnapshot snapshot = UserSnapshot.of(Arrays.asList(user(1, 10000, 3004), user(2, 10000, 3005),
+                user(3, 3, 2), user(4, 10, 3), user(5, 10000, 2996)), CLOCK);
+
+        assertThat(snapshot.findByApprovedPercentGreaterThanThreshold(30)).extracting(UserRecord::getId)
+                .containsExactly(1, 2, 3);
+        assertThat(snapshot.findByApprovedPercentGreaterThanThreshold(29)).extracting(UserRecord::getId)
+                .containsExactly(5, 4, 1, 2, 3);
+        assertThat(snapshot.findByApprovedPercentGreaterThanThreshold(66)).extracting(UserRecord::getId)
+                .containsExactly(3);
+        assertThat(snapshot.countAbove(30)).isEqualTo(3);
+        assertThat(snapshot.getHistogram()[29]).isEqualTo(1);
+        assertThat(snapshot.getHistogram()[30]).isEqualTo(3);
+        assertThat(snapshot.find(new UserQuery(0, 30, 30, 0, null, null), null)).extracting(UserRecord::getId)
+                .containsExactly(4);
+    }
+
+    @Test
+    void countsAndHistogram() {
+        UserSnapshot snapshot = UserSnapshot.of(Arrays.asList(
+                user(1, 10, 0), user(2, 10, 3), user(3, 3, 1), user(4, 10, 5), user(5, 1, 1), user(6, 0, 0)), CLOCK);
+
+        assertThat(snapshot.countAbove(-1)).isEqualTo(5);
+        assertThat(snapshot.countAbove(0)).isEqualTo(4);
+        assertThat(snapshot.countAbove(30)).isEqualTo(3);
+        assertThat(snapshot.countAbove(33)).isEqualTo(3);
+        assertThat(snapshot.countAbove(34)).isEqualTo(2);
+        assertThat(snapshot.countAbove(99)).isEqualTo(1);
+        assertThat(snapshot.countAbove(100)).isZero();
+        assertThat(snapshot.countAbove(50)).isEqualTo(snapshot.findByApprovedPercentGreaterThanThreshold(50).size());
+
+        int[] histogram = snapshot.getHistogram();
+        assertThat(histogram).hasSize(UserSnapshot.APPROVAL_PERCENTAGES);
+        assertThat(histogram[0]).isEqualTo(1);
+        assertThat(histogram[30]).isEqualTo(1);
+        assertThat(histogram[33]).isEqualTo(1);
+        assertThat(histogram[50]).isEqualTo(1);
+        assertThat(histogram[100]).isEqualTo(1);
+        assertThat(Arrays.stream(histogram).sum()).isEqualTo(snapshot.size());
+    }
+
+    @Test
+    void findByQuery() {
+        UserSnapshot snapshot = UserSnapshot.of(Arrays.asList(
+                user(1, 10, 9), user(2, 10, 3), user(3, 2, 1), user(4, 10, 5), user(5, 10, 7), user(6, 1, 1)), CLOCK);
+
+        assertThat(snapshot.find(new UserQuery(0, 30, 70, 0, null, null), null)).extracting(UserRecord::getId)
+                .containsExactly(2, 3, 4, 5);
+        assertThat(snapshot.find(new UserQuery(30, null, null, 5, null, null), null)).extracting(UserRecord::getId)
+                .containsExactly(4, 5, 1);
+        assertThat(snapshot.find(new UserQuery(0, null, null, 0, 2, null), null)).extracting(UserRecord::getId)
+                .containsExactly(1, 6);
+        assertThat(snapshot.find(new UserQuery(0, null, 90, 5, 2, null), null)).extracting(UserRecord::getId)
+                .containsExactly(5, 1);
+        assertThat(snapshot.find(new UserQuery(0, null, 90, 5, 2, null), UserCursor.of(user(5, 10, 7))))
+                .extracting(UserRecord::getId).containsExactly(1);
+        assertThat(snapshot.find(new UserQuery(0, null, null, 0, 3, null), UserCursor.of(user(1, 10, 9))))
+                .extracting(UserRecord::getId).containsExactly(6);
+    }
+
+    @Test
+    void findByQueryDescending() {
+        UserSnapshot snapshot = UserSnapshot.of(Arrays.asList(
+                user(1, 10, 9), user(2, 10, 3), user(3, 2, 1), user(4, 10, 5), user(5, 10, 7), user(6, 1, 1)), CLOCK);
+        UserQuery.Order descending = UserQuery.Order.DESCENDING;
+
+        assertThat(snapshot.find(new UserQuery(0, null, null, 0, null, descending), null))
+                .extracting(UserRecord::getId).containsExactly(6, 1, 5, 4, 3, 2);
+        assertThat(snapshot.find(new UserQuery(0, null, null, 0, null, descending), UserCursor.of(user(5, 10, 7))))
+                .extracting(UserRecord::getId).containsExactly(4, 3, 2);
+        assertThat(snapshot.find(new UserQuery(0, null, null, 0, 3, descending), UserCursor.of(user(1, 10, 9))))
+                .extracting(UserRecord::getId).containsExactly(5);
+        assertThat(snapshot.find(new UserQuery(0, null, null, 5, null, descending), UserCursor.of(user(4, 10, 5))))
+                .extracting(UserRecord::getId).containsExactly(2);
+        assertThat(snapshot.find(new UserQuery(0, null, null, 5, 2, descending), null))
+                .extracting(UserRecord::getId).containsExactly(1, 5);
+    }
+
+    @Test
+    void ofPagesKeepsOnlyTopMatchingUsers() {
+        UserResponse page = new UserResponse(1, 10, 6, 1, Arrays.asList(
+                data(1, 10, 9), data(2, 10, 3), data(3, 2, 1), data(4, 10, 5), data(5, 10, 7), data(6, 1, 1)));
+        UserPages pages = new UserPages(Collections.singletonList(page), Collections.singletonList(2), false);
+
+        UserSnapshot snapshot = UserSnapshot.of(pages, new UserQuery(20, null, null, 2, 3, null));
+
+        assertThat(snapshot.getUsers()).extracting(UserRecord::getId).containsExactly(4, 5, 1);
+        assertThat(snapshot.getFailedPages()).containsExactly(2);
+    }
+
+    @Test
+    void mergeKeepsNewestDuplicateInOrder() {
+        UserSnapshot first = UserSnapshot.of(Arrays.asList(
+                user(1, 10, 9), user(3, 10, 5), user(4, 10, 1)), Collections.singletonList(3), CLOCK);
+        UserSnapshot second = UserSnapshot.of(Arrays.asList(
+                user(2, 10, 3), user(5, 10, 7),
+                UserRecord.of(new UserResponse.Data(4, "user4", null, 10, CLOCK.instant(), 8, 0, 0L))),
+                Collections.singletonList(2), CLOCK);
+
+        UserSnapshot merged = UserSnapshot.merge(Arrays.asList(first, second), CLOCK);
+
+        assertThat(merged.size()).isEqualTo(5);
+        assertThat(merged.findByApprovedPercentGreaterThanThreshold(0)).extracting(UserRecord::getId)
+                .containsExactly(2, 3, 5, 4, 1);
+        assertThat(merged.getFailedPages()).containsExactly(2, 3);
+        assertThat(merged.isComplete()).isFalse();
+    }
+
+    @Test
+    void age() {
+        UserSnapshot snapshot = UserSnapshot.of(Arrays.asList(user(1, 10, 9)), CLOCK);
+
+        assertThat(snapshot.getCreatedAt()).isEqualTo(CLOCK.instant());
+        assertThat(snapshot.getAge()).isZero();
+    }
+}
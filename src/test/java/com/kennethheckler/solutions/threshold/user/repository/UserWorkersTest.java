@@ -0,0 +1,72 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class UserWorkersTest {
+
+    private static UserWorkers workers(UserRepositoryConfiguration.ExecutionMode execution) {
+        return new UserWorkers(new UserRepositoryConfiguration(true, Duration.ofMinutes(5), Duration.ofMinutes(15),
+                true, false, null, Duration.ofDays(1), null, execution));
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Test
+    void virtualThreadsOffloadOffTheEventLoop() {
+        assumeTrue(hasVirtualThreads());
+        UserWorkers workers = workers(UserRepositoryConfiguration.ExecutionMode.VIRTUAL_THREADS);
+        Scheduler eventLoop = Schedulers.newSingle("eventLoop");
+        try {
+            assertThat(workers.isVirtual()).isTrue();
+
+            Thread thread = workers.offload(Mono.just(1).publishOn(eventLoop))
+                    .map(page -> Thread.currentThread())
+                    .block();
+
+            assertThat(thread).isNotNull();
+            assertThat(thread.getName()).doesNotStartWith("eventLoop");
+            assertThat(workers.blocking()).isNotSameAs(Schedulers.boundedElastic());
+        } finally {
+            eventLoop.dispose();
+            workers.dispose();
+        }
+    }
+
+    @Test
+    void virtualThreadsFallBackToEventLoopWithoutThem() {
+        assumeFalse(hasVirtualThreads());
+        UserWorkers workers = workers(UserRepositoryConfiguration.ExecutionMode.VIRTUAL_THREADS);
+
+        assertThat(workers.isVirtual()).isFalse();
+        Mono<Integer> source = Mono.just(1);
+        assertThat(workers.offload(source)).isSameAs(source);
+        assertThat(workers.blocking()).isSameAs(Schedulers.boundedElastic());
+    }
+
+    @Test
+    void eventLoopLeavesWorkWhereItIs() {
+        UserWorkers workers = workers(UserRepositoryConfiguration.ExecutionMode.EVENT_LOOP);
+
+        assertThat(workers.isVirtual()).isFalse();
+        Mono<Integer> source = Mono.just(1);
+        assertThat(workers.offload(source)).isSameAs(source);
+        assertThat(workers.blocking()).isSameAs(Schedulers.boundedElastic());
+    }
+}
@@ -0,0 +1,34 @@
+package com.kennethheckler.solutions.threshold.user.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UsernamePoolTest {
+
+    @Test
+    void addStoresEachUsernameOnce() {
+        UsernamePool pool = new UsernamePool(false);
+
+        int first = pool.add("epaga");
+        int second = pool.add("\u00dcn\u00efc\u00f6d\u00e9");
+
+        assertThat(pool.add("epaga")).isEqualTo(first);
+        assertThat(pool.size()).isEqualTo(2);
+        assertThat(pool.get(first)).isEqualTo("epaga");
+        assertThat(pool.get(second)).isEqualTo("\u00dcn\u00efc\u00f6d\u00e9");
+    }
+
+    @Test
+    void directPoolGrows() {
+        UsernamePool pool = new UsernamePool(true);
+        for (int i = 0; i < 10_000; i++) {
+            pool.add("user" + i);
+        }
+        pool.add("user42");
+        pool.freeze();
+
+        assertThat(pool.size()).isEqualTo(10_000);
+        assertThat(pool.get(9_999)).isEqualTo("user9999");
+    }
+}